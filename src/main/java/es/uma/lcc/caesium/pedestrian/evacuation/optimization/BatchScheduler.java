@@ -0,0 +1,197 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+
+import es.uma.lcc.caesium.ea.util.JsonUtil;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
+
+/**
+ * Runs a batch of experiments concurrently. Each job (a run of an algorithm 
+ * configuration on an environment with a number of exits) is run by the main method
+ * of an algorithm in a separate JVM, so jobs do not share any global state, and its
+ * output is written to a log file. The main method receives the index of the run as
+ * an additional argument, and writes the output files of that run only. The number
+ * of jobs run at a time is the core budget divided by the cores taken by each job: 
+ * replicas in a JVM run one at a time (see {@link ReplicaRandom#withGlobalGenerator}),
+ * so a job takes a single core, or one per local simulation worker if it launches
+ * them. Completed jobs are recorded in a checkpoint file, so an interrupted batch 
+ * resumes where it stopped (an interrupted run is run again from scratch).
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class BatchScheduler {
+	/**
+	 * suffix of the checkpoint file (appended to the name of the batch file)
+	 */
+	private static final String CHECKPOINT_SUFFIX = ".done";
+	/**
+	 * suffix of the log file of each job
+	 */
+	private static final String LOG_SUFFIX = ".log";
+	/**
+	 * the main class of the algorithm
+	 */
+	private final Class<?> mainClass;
+	/**
+	 * the checkpoint file
+	 */
+	private final Path checkpoint;
+	/**
+	 * jobs already completed
+	 */
+	private final Set<String> completed;
+	/**
+	 * core budget
+	 */
+	private final int budget;
+	/**
+	 * number of runs of each experiment
+	 */
+	private final int numRuns;
+
+
+	/**
+	 * Creates the scheduler of a batch of experiments
+	 * @param batchFile the name of the batch file (used to name the checkpoint file)
+	 * @param mainClass the class whose main method runs a single experiment
+	 * @param budget the number of cores that can be used simultaneously
+	 * @param numRuns the number of runs of each experiment (each of them is a separate job)
+	 * @throws IOException if the checkpoint file cannot be read
+	 */
+	public BatchScheduler(String batchFile, Class<?> mainClass, int budget, int numRuns) throws IOException {
+		this.mainClass = mainClass;
+		this.budget = budget;
+		this.numRuns = numRuns;
+		checkpoint = Path.of(batchFile + CHECKPOINT_SUFFIX);
+		completed = new HashSet<String>();
+		if (Files.exists(checkpoint)) {
+			completed.addAll(Files.readAllLines(checkpoint));
+		}
+	}
+
+
+	/**
+	 * Runs the experiments in a batch configuration. The configuration contains the
+	 * algorithm configuration ({@code algorithm}), the number of exits ({@code exits}),
+	 * the simulation configuration ({@code simulation}), and a list of experiments
+	 * ({@code experiments}), each of them with a basename ({@code basename}), the
+	 * number of the last instance ({@code num}) and optionally the number of the
+	 * first instance ({@code start}, 1 by default).
+	 * @param conf the batch configuration
+	 * @throws JsonException if the simulation configuration is not properly formatted
+	 * @throws IOException if files cannot be read/written
+	 */
+	public void run(JsonObject conf) throws JsonException, IOException {
+		String algorithmConf = (String) conf.get("algorithm");
+		int numExits = JsonUtil.getInt(conf, "exits");
+		String simulationConf = (String) conf.get("simulation");
+		JsonArray experiments = (JsonArray) conf.get("experiments");
+		SimulationConfiguration simConf = SimulationConfiguration.fromFile(simulationConf);
+		int cores = Math.max(1, simConf.getInt("workers/local"));
+		int concurrency = Math.max(1, budget / cores);
+
+		List<String[]> jobs = new ArrayList<String[]>();
+		for (Object o: experiments) {
+			JsonObject exp = (JsonObject)o;
+			String environment = (String) exp.get("basename");
+			int num = JsonUtil.getInt(exp, "num");
+			int first = 1;
+			if (exp.containsKey("start")) {
+				first = JsonUtil.getInt(exp, "start");
+			}
+			for (int i=first; i<=num; i++) {
+				String[] experiment = {algorithmConf, environment + "-" + String.valueOf(i), String.valueOf(numExits), simulationConf};
+				if (completed.contains(String.join(" ", experiment))) {
+					// completed as a whole by a batch run before experiments were split into runs
+					System.out.println("Skipping " + String.join(" ", experiment) + " (already completed)");
+					continue;
+				}
+				for (int run=0; run<numRuns; run++) {
+					String[] params = {experiment[0], experiment[1], experiment[2], experiment[3], String.valueOf(run)};
+					if (completed.contains(String.join(" ", params))) {
+						System.out.println("Skipping " + String.join(" ", params) + " (already completed)");
+					}
+					else {
+						jobs.add(params);
+					}
+				}
+			}
+		}
+
+		System.out.println("Running " + jobs.size() + " jobs (at most " + concurrency + " at a time)");
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(jobs.size());
+		try {
+			for (String[] params: jobs) {
+				results.add(executor.submit(() -> runJob(params)));
+			}
+			int failed = 0;
+			for (Future<Boolean> result: results) {
+				if (!result.get())
+					failed++;
+			}
+			System.out.println(jobs.size() - failed + " jobs completed, " + failed + " failed");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Batch interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Batch failed", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * Runs a job in a separate JVM and records it in the checkpoint file if it succeeds
+	 * @param params the command-line arguments of the job
+	 * @return true if the job completed successfully
+	 * @throws IOException if the job cannot be launched or the checkpoint file cannot be written
+	 * @throws InterruptedException if interrupted while waiting for the job
+	 */
+	private boolean runJob(String[] params) throws IOException, InterruptedException {
+		String job = String.join(" ", params);
+		String log = String.join("-", params).replace(File.separatorChar, '_') + LOG_SUFFIX;
+		System.out.println("Running " + job + " (log: " + log + ")");
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass.getName());
+		command.addAll(List.of(params));
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(new File(log))
+				.start();
+		int status = process.waitFor();
+		if (status != 0) {
+			System.out.println("Failed " + job + " (exit status " + status + ")");
+			return false;
+		}
+		synchronized (this) {
+			try (PrintWriter out = new PrintWriter(new FileWriter(checkpoint.toFile(), true))) {
+				out.println(job);
+			}
+			completed.add(job);
+		}
+		System.out.println("Completed " + job);
+		return true;
+	}
+}
@@ -0,0 +1,266 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe cache with least-recently-used eviction. The cache is bounded 
+ * both in the number of entries and in the total weight of the values stored 
+ * (e.g., an estimate of their size in bytes). Keys can be spread over several 
+ * independently locked segments to reduce contention; in that case, bounds and 
+ * eviction order apply to each segment separately.
+ * @author ccottap, ppgllrd
+ * @version 1.1
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class BoundedCache<K, V> {
+	/**
+	 * function to compute the weight of a value
+	 */
+	private final ToLongFunction<V> weigher;
+	/**
+	 * segments of the cache
+	 */
+	private final List<Segment> segments;
+	/**
+	 * number of successful lookups
+	 */
+	private final LongAdder hits = new LongAdder();
+	/**
+	 * number of unsuccessful lookups
+	 */
+	private final LongAdder misses = new LongAdder();
+	/**
+	 * number of entries evicted
+	 */
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * A segment of the cache: a bounded map in access order, guarded by its own lock
+	 */
+	private final class Segment {
+		/**
+		 * maximum number of entries
+		 */
+		private final int maxEntries;
+		/**
+		 * maximum total weight of the values stored
+		 */
+		private final long maxWeight;
+		/**
+		 * entries of the segment, in access order
+		 */
+		private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+		/**
+		 * current total weight of the values stored
+		 */
+		private long weight = 0;
+		
+		/**
+		 * Creates a segment
+		 * @param maxEntries maximum number of entries
+		 * @param maxWeight maximum total weight of the values stored
+		 */
+		Segment(int maxEntries, long maxWeight) {
+			this.maxEntries = maxEntries;
+			this.maxWeight = maxWeight;
+		}
+		
+		synchronized V get(K key) {
+			return entries.get(key);
+		}
+		
+		synchronized void put(K key, V value) {
+			V old = entries.put(key, value);
+			if (old != null)
+				weight -= weigher.applyAsLong(old);
+			weight += weigher.applyAsLong(value);
+			Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+			while (((entries.size() > maxEntries) || (weight > maxWeight)) && it.hasNext()) {
+				Map.Entry<K, V> eldest = it.next();
+				if (eldest.getKey().equals(key))
+					continue; // never evict the entry just inserted
+				weight -= weigher.applyAsLong(eldest.getValue());
+				it.remove();
+				evictions.increment();
+			}
+		}
+		
+		synchronized void clear() {
+			entries.clear();
+			weight = 0;
+		}
+		
+		synchronized int size() {
+			return entries.size();
+		}
+		
+		synchronized long weight() {
+			return weight;
+		}
+	}
+	
+	/**
+	 * Creates a cache bounded in the number of entries and their weight
+	 * @param maxEntries maximum number of entries
+	 * @param maxWeight maximum total weight of the values stored
+	 * @param weigher function to compute the weight of a value
+	 * @param numSegments number of independently locked segments
+	 */
+	public BoundedCache(int maxEntries, long maxWeight, ToLongFunction<V> weigher, int numSegments) {
+		this.weigher = weigher;
+		numSegments = Math.max(1, numSegments);
+		segments = new ArrayList<Segment>(numSegments);
+		for (int i = 0; i < numSegments; i++) {
+			segments.add(new Segment(Math.max(1, maxEntries / numSegments), maxWeight / numSegments));
+		}
+	}
+	
+	/**
+	 * Creates a cache bounded in the number of entries and their weight
+	 * @param maxEntries maximum number of entries
+	 * @param maxWeight maximum total weight of the values stored
+	 * @param weigher function to compute the weight of a value
+	 */
+	public BoundedCache(int maxEntries, long maxWeight, ToLongFunction<V> weigher) {
+		this(maxEntries, maxWeight, weigher, 1);
+	}
+	
+	/**
+	 * Creates a cache bounded in the number of entries
+	 * @param maxEntries maximum number of entries
+	 * @param numSegments number of independently locked segments
+	 */
+	public BoundedCache(int maxEntries, int numSegments) {
+		this(maxEntries, Long.MAX_VALUE, v -> 0L, numSegments);
+	}
+	
+	/**
+	 * Creates a cache bounded in the number of entries
+	 * @param maxEntries maximum number of entries
+	 */
+	public BoundedCache(int maxEntries) {
+		this(maxEntries, 1);
+	}
+	
+	/**
+	 * Returns the segment in which a key is stored
+	 * @param key the key
+	 * @return the segment for the key
+	 */
+	private Segment segment(K key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments.get(Math.floorMod(h, segments.size()));
+	}
+	
+	/**
+	 * Returns the value associated to a key (and marks it as recently used)
+	 * @param key the key
+	 * @return the value associated to the key, or null if not present
+	 */
+	public V get(K key) {
+		V value = segment(key).get(key);
+		if (value == null)
+			misses.increment();
+		else
+			hits.increment();
+		return value;
+	}
+	
+	/**
+	 * Stores a value, evicting the least recently used entries if the bounds are exceeded
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(K key, V value) {
+		segment(key).put(key, value);
+	}
+	
+	/**
+	 * Returns the value associated to a key, computing and storing it if not present. 
+	 * The computation is done outside the lock, so concurrent misses on the same key 
+	 * may compute the value more than once.
+	 * @param key the key
+	 * @param function the function to compute the value
+	 * @return the value associated to the key
+	 */
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+		V value = get(key);
+		if (value == null) {
+			value = function.apply(key);
+			put(key, value);
+		}
+		return value;
+	}
+	
+	/**
+	 * Removes all entries and resets the counters
+	 */
+	public void clear() {
+		for (Segment segment: segments)
+			segment.clear();
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+	
+	/**
+	 * Returns the number of entries
+	 * @return the number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment: segments)
+			size += segment.size();
+		return size;
+	}
+	
+	/**
+	 * Returns the total weight of the values stored
+	 * @return the total weight of the values stored
+	 */
+	public long getWeight() {
+		long weight = 0;
+		for (Segment segment: segments)
+			weight += segment.weight();
+		return weight;
+	}
+	
+	/**
+	 * Returns the number of successful lookups
+	 * @return the number of successful lookups
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Returns the number of unsuccessful lookups
+	 * @return the number of unsuccessful lookups
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	/**
+	 * Returns the number of entries evicted
+	 * @return the number of entries evicted
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	@Override
+	public String toString() {
+		return "BoundedCache(entries=" + size() + ", weight=" + getWeight() + ", hits=" + getHits() 
+				+ ", misses=" + getMisses() + ", evictions=" + getEvictions() + ")";
+	}
+}
@@ -0,0 +1,119 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.cellular.automaton.automata.floorField.FloorField;
+
+/**
+ * A static floor field stored as a primitive array. It is obtained as the 
+ * pointwise minimum of the distance maps of individual exits over the same grid, 
+ * which is the static floor field of the scenario containing all of them.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class ComposedStaticFloorField implements FloorField {
+	/**
+	 * relative tolerance when comparing fields
+	 */
+	private static final double TOLERANCE = 1e-9;
+	/**
+	 * number of rows of the grid
+	 */
+	private final int rows;
+	/**
+	 * number of columns of the grid
+	 */
+	private final int columns;
+	/**
+	 * values of the field (row-major order)
+	 */
+	private final double[] field;
+	
+	/**
+	 * Creates the floor field
+	 * @param rows number of rows of the grid
+	 * @param columns number of columns of the grid
+	 * @param field values of the field (row-major order)
+	 */
+	private ComposedStaticFloorField(int rows, int columns, double[] field) {
+		this.rows = rows;
+		this.columns = columns;
+		this.field = field;
+	}
+	
+	/**
+	 * Extracts the values of a floor field into a primitive array
+	 * @param floorField a floor field
+	 * @return the values of the field (row-major order)
+	 */
+	public static double[] toArray(FloorField floorField) {
+		int rows = floorField.getRows();
+		int columns = floorField.getColumns();
+		double[] values = new double[rows * columns];
+		for (int i = 0, k = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++, k++) {
+				values[k] = floorField.getField(i, j);
+			}
+		}
+		return values;
+	}
+	
+	/**
+	 * Composes the distance maps of a collection of exits
+	 * @param rows number of rows of the grid
+	 * @param columns number of columns of the grid
+	 * @param maps distance maps of the individual exits (row-major order), at least one
+	 * @return the floor field of the scenario containing all the exits
+	 */
+	public static ComposedStaticFloorField of(int rows, int columns, Iterable<double[]> maps) {
+		double[] field = null;
+		for (double[] map: maps) {
+			if (field == null) {
+				field = map.clone();
+			}
+			else {
+				for (int k = 0; k < field.length; k++) {
+					if (map[k] < field[k])
+						field[k] = map[k];
+				}
+			}
+		}
+		return new ComposedStaticFloorField(rows, columns, field);
+	}
+
+	/**
+	 * Checks whether this field has the same values as another one (up to rounding errors)
+	 * @param floorField a floor field
+	 * @return true if both fields have the same dimensions and values
+	 */
+	public boolean matches(FloorField floorField) {
+		if ((floorField.getRows() != rows) || (floorField.getColumns() != columns))
+			return false;
+		for (int i = 0, k = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++, k++) {
+				double value = floorField.getField(i, j);
+				if ((field[k] != value) && !(Math.abs(field[k] - value) <= TOLERANCE * Math.max(1.0, Math.abs(value))))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int getRows() {
+		return rows;
+	}
+
+	@Override
+	public int getColumns() {
+		return columns;
+	}
+
+	@Override
+	public double getField(int row, int column) {
+		return field[row * columns + column];
+	}
+
+	@Override
+	public void initialize() {
+		// static field: nothing to do
+	}
+}
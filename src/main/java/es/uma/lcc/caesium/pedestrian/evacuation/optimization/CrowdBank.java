@@ -0,0 +1,158 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Bank of the crowds of simulation replicas (common random numbers). The crowd of
+ * each replica (the seed of the global generator while the automaton places pedestrians
+ * and makes its decisions, see {@link ReplicaRandom#withGlobalGenerator}, the number
+ * of pedestrians and the parameters of each of them)
+ * only depends on the base seed of the configuration and the replica index, so it
+ * is sampled once and replayed in the simulation of every layout. Crowds are kept in
+ * primitive arrays, which grow (in a thread-safe way) as replicas with larger indices
+ * are requested. The values are drawn in the same order as they would be drawn from
+ * the replica stream during the simulation, so replaying a crowd gives the same results.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class CrowdBank {
+	/**
+	 * number of parameters per pedestrian (field attraction bias, crowd repulsion and velocity percent)
+	 */
+	static final int PARAMETERS = 3;
+	/**
+	 * base seed of the replica streams
+	 */
+	private final long seed;
+	/**
+	 * range of the number of pedestrians
+	 */
+	private final int numPedestriansMin, numPedestriansMax;
+	/**
+	 * range of each parameter of pedestrians (min and max of each of them, in the order of {@link Crowds#parameters})
+	 */
+	private final double[] ranges;
+	/**
+	 * crowds sampled so far
+	 */
+	private volatile Crowds crowds;
+
+
+	/**
+	 * Crowds of a number of replicas. Instances are never modified once published.
+	 */
+	static final class Crowds {
+		/**
+		 * number of replicas
+		 */
+		final int size;
+		/**
+		 * seed of the global generator in each replica
+		 */
+		final long[] seeds;
+		/**
+		 * index of the first pedestrian of each replica (one more entry marking the end)
+		 */
+		final int[] offsets;
+		/**
+		 * parameters of each pedestrian (field attraction bias, crowd repulsion and velocity percent)
+		 */
+		final double[] parameters;
+
+		/**
+		 * Creates the crowds of a number of replicas
+		 * @param size number of replicas
+		 * @param seeds seed of the global generator in each replica
+		 * @param offsets index of the first pedestrian of each replica
+		 * @param parameters parameters of each pedestrian
+		 */
+		private Crowds(int size, long[] seeds, int[] offsets, double[] parameters) {
+			this.size = size;
+			this.seeds = seeds;
+			this.offsets = offsets;
+			this.parameters = parameters;
+		}
+
+		/**
+		 * Returns the number of pedestrians of a replica
+		 * @param replica the index of the replica
+		 * @return the number of pedestrians
+		 */
+		int numPedestrians(int replica) {
+			return offsets[replica + 1] - offsets[replica];
+		}
+	}
+
+
+	/**
+	 * Creates an empty bank
+	 * @param seed base seed of the replica streams
+	 * @param numPedestriansMin minimum number of pedestrians
+	 * @param numPedestriansMax maximum number of pedestrians
+	 * @param ranges min and max of the field attraction bias, the crowd repulsion and the velocity percent
+	 */
+	public CrowdBank(long seed, int numPedestriansMin, int numPedestriansMax, double... ranges) {
+		if (ranges.length != 2 * PARAMETERS)
+			throw new IllegalArgumentException("Expected " + 2 * PARAMETERS + " range bounds");
+		this.seed = seed;
+		this.numPedestriansMin = numPedestriansMin;
+		this.numPedestriansMax = numPedestriansMax;
+		this.ranges = ranges.clone();
+		crowds = new Crowds(0, new long[0], new int[1], new double[0]);
+	}
+
+
+	/**
+	 * Returns the crowds sampled so far, sampling new ones if the given replica is not among them
+	 * @param replica the index of a replica
+	 * @return the crowds (including that of the replica)
+	 */
+	Crowds covering(int replica) {
+		Crowds c = crowds;
+		return (replica < c.size) ? c : grow(replica + 1);
+	}
+
+
+	/**
+	 * Returns the number of replicas sampled so far
+	 * @return the number of replicas sampled so far
+	 */
+	public int size() {
+		return crowds.size;
+	}
+
+
+	/**
+	 * Samples the crowds of further replicas (at least doubling the number of replicas)
+	 * @param size the minimum number of replicas required
+	 * @return the crowds
+	 */
+	private synchronized Crowds grow(int size) {
+		Crowds c = crowds;
+		if (size <= c.size)
+			return c;
+		int newSize = Math.max(size, 2 * c.size);
+		long[] seeds = Arrays.copyOf(c.seeds, newSize);
+		int[] offsets = Arrays.copyOf(c.offsets, newSize + 1);
+		double[] parameters = Arrays.copyOf(c.parameters, Math.max(c.parameters.length, 16));
+		int pedestrians = c.offsets[c.size];
+		for (int replica = c.size; replica < newSize; replica++) {
+			// same order of draws as in the simulation of the replica
+			SplittableRandom rng = ReplicaRandom.stream(seed, replica, 0L);
+			seeds[replica] = rng.nextLong();
+			int n = rng.nextInt(numPedestriansMin, numPedestriansMax + 1);
+			if (PARAMETERS * (pedestrians + n) > parameters.length)
+				parameters = Arrays.copyOf(parameters, Math.max(2 * parameters.length, PARAMETERS * (pedestrians + n)));
+			for (int p = 0; p < n; p++) {
+				for (int k = 0; k < PARAMETERS; k++) {
+					parameters[PARAMETERS * (pedestrians + p) + k] = ExitEvacuationProblem.sample(rng, ranges[2 * k], ranges[2 * k + 1]);
+				}
+			}
+			pedestrians += n;
+			offsets[replica + 1] = pedestrians;
+		}
+		crowds = new Crowds(newSize, seeds, offsets, parameters);
+		return crowds;
+	}
+}
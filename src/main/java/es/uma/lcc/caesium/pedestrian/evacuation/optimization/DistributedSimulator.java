@@ -0,0 +1,438 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
+
+/**
+ * Runs simulations on a pool of worker processes ({@link SimulationWorker}) reached
+ * through TCP sockets (typically on the local host). The replicas requested are split
+ * into chunks that workers pull as they become idle. A chunk whose worker fails or
+ * exceeds the timeout is re-dispatched to the remaining workers (the worker that 
+ * exceeded the timeout is told to cancel it), and failed workers are reconnected on
+ * the next request. The simulator must be closed once it is no longer needed, so 
+ * that the worker processes it launched are destroyed.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class DistributedSimulator implements AutoCloseable {
+	/**
+	 * Definition of the environment and simulation parameters shipped to workers
+	 * @param id the identifier of the definition
+	 * @param numExits number of exits
+	 * @param environment the environment (in json format)
+	 * @param parameters the simulation parameters
+	 */
+	public record Workload(long id, int numExits, String environment, Map<String, String> parameters) {}
+
+	/**
+	 * A connection to a worker
+	 */
+	private final class Connection {
+		/**
+		 * address of the worker
+		 */
+		private final InetSocketAddress address;
+		/**
+		 * socket connected to the worker (null if disconnected)
+		 */
+		private Socket socket;
+		/**
+		 * input stream of the socket
+		 */
+		private DataInputStream in;
+		/**
+		 * output stream of the socket
+		 */
+		private DataOutputStream out;
+		/**
+		 * workloads already defined through this connection
+		 */
+		private final Set<Long> defined = new HashSet<Long>();
+
+		/**
+		 * Creates a (disconnected) connection to a worker
+		 * @param address address of the worker
+		 */
+		Connection(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		/**
+		 * Simulates some replicas on the worker
+		 * @param workload the workload
+		 * @param accesses the exits to be added to the environment
+		 * @param replicas the indices of the replicas
+		 * @param solutionKey the solution key
+		 * @param limit the time limit of the simulations (in seconds)
+		 * @return the summaries of the replicas
+		 * @throws IOException if the worker fails or exceeds the timeout
+		 */
+		synchronized SimulationSummary[] simulate(Workload workload, List<Access> accesses, int[] replicas, long solutionKey, double limit) throws IOException {
+			long id = requests.incrementAndGet();
+			try {
+				if (socket == null) {
+					socket = new Socket();
+					socket.connect(address, CONNECT_TIMEOUT);
+					socket.setTcpNoDelay(true);
+					socket.setSoTimeout(timeout);
+					in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+					defined.clear();
+				}
+				if (!defined.contains(workload.id())) {
+					define(workload);
+				}
+				SimulationSummary[] summaries = request(workload, id, accesses, replicas, solutionKey, limit);
+				if (summaries == null) {
+					// the worker was restarted: define the workload again
+					define(workload);
+					summaries = request(workload, id, accesses, replicas, solutionKey, limit);
+				}
+				if (summaries == null)
+					throw new IOException("Worker " + address + " cannot load the environment");
+				return summaries;
+			} catch (SocketTimeoutException e) {
+				// the chunk is re-dispatched: stop the worker from wasting time on it
+				cancel(id);
+				close();
+				throw e;
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Tells the worker to cancel a request (through a separate connection, as 
+		 * the one of the request is busy). Errors are ignored, since the worker may 
+		 * be unreachable.
+		 * @param id the identifier of the request
+		 */
+		private void cancel(long id) {
+			try (Socket cancel = new Socket()) {
+				cancel.connect(address, CONNECT_TIMEOUT);
+				DataOutputStream cancelOut = new DataOutputStream(cancel.getOutputStream());
+				cancelOut.writeInt(SimulationWorker.CANCEL);
+				cancelOut.writeLong(id);
+				cancelOut.flush();
+			} catch (IOException e) {
+				// the worker is not reachable: nothing else to do
+			}
+		}
+
+		/**
+		 * Sends the definition of a workload
+		 * @param workload the workload
+		 * @throws IOException if the definition cannot be sent
+		 */
+		private void define(Workload workload) throws IOException {
+			out.writeInt(SimulationWorker.DEFINE);
+			out.writeLong(workload.id());
+			out.writeInt(workload.numExits());
+			SimulationWorker.writeString(out, workload.environment());
+			out.writeInt(workload.parameters().size());
+			for (var entry: workload.parameters().entrySet()) {
+				SimulationWorker.writeString(out, entry.getKey());
+				SimulationWorker.writeString(out, entry.getValue());
+			}
+			defined.add(workload.id());
+		}
+
+		/**
+		 * Sends a simulation request and waits for the results
+		 * @param workload the workload
+		 * @param id the identifier of the request
+		 * @param accesses the exits to be added to the environment
+		 * @param replicas the indices of the replicas
+		 * @param solutionKey the solution key
+		 * @param limit the time limit of the simulations (in seconds)
+		 * @return the summaries of the replicas (null if the workload is unknown to the worker)
+		 * @throws IOException if the worker fails or exceeds the timeout
+		 */
+		private SimulationSummary[] request(Workload workload, long id, List<Access> accesses, int[] replicas, long solutionKey, double limit) throws IOException {
+			out.writeInt(SimulationWorker.SIMULATE);
+			out.writeLong(workload.id());
+			out.writeLong(id);
+			out.writeLong(solutionKey);
+			out.writeDouble(limit);
+			SimulationWorker.writeAccesses(out, accesses);
+			out.writeInt(replicas.length);
+			for (int replica: replicas) {
+				out.writeInt(replica);
+			}
+			out.flush();
+			int status = in.readInt();
+			if (status == SimulationWorker.UNKNOWN) {
+				defined.remove(workload.id());
+				return null;
+			}
+			if (status != SimulationWorker.OK)
+				throw new IOException("Worker " + address + " failed: " + SimulationWorker.readString(in));
+			SimulationSummary[] summaries = new SimulationSummary[replicas.length];
+			for (int i = 0; i < replicas.length; i++) {
+				summaries[i] = SimulationWorker.readSummary(in);
+			}
+			return summaries;
+		}
+
+		/**
+		 * Closes the connection (it will be reopened on the next request)
+		 */
+		synchronized void close() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+				socket = null;
+			}
+		}
+	}
+
+	/**
+	 * timeout (in milliseconds) to connect to a worker
+	 */
+	private static final int CONNECT_TIMEOUT = 10000;
+	/**
+	 * maximum number of times the pending chunks are re-dispatched to the pool
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+	/**
+	 * number of chunks per worker in which the replicas of a request are split
+	 */
+	private static final int CHUNKS_PER_WORKER = 2;
+	/**
+	 * connections to the workers
+	 */
+	private final List<Connection> connections;
+	/**
+	 * timeout (in milliseconds) to wait for the results of a chunk (0 for no timeout)
+	 */
+	private final int timeout;
+	/**
+	 * threads waiting for the workers
+	 */
+	private final ExecutorService executor;
+	/**
+	 * worker processes launched by this simulator
+	 */
+	private final List<Process> processes;
+	/**
+	 * hook destroying the worker processes on shutdown, in case the simulator is not closed (null if none)
+	 */
+	private Thread shutdownHook;
+	/**
+	 * identifier of the last request sent, used to cancel requests (it starts at random,
+	 * so that requests of different simulators served by the same worker do not clash)
+	 */
+	private final AtomicLong requests = new AtomicLong(ThreadLocalRandom.current().nextLong());
+
+
+	/**
+	 * Creates a simulator for a pool of workers
+	 * @param addresses the addresses of the workers
+	 * @param timeout the timeout (in seconds) to wait for the results of a chunk (0 for no timeout)
+	 */
+	public DistributedSimulator(List<InetSocketAddress> addresses, double timeout) {
+		connections = new ArrayList<Connection>(addresses.size());
+		for (InetSocketAddress address: addresses) {
+			connections.add(new Connection(address));
+		}
+		this.timeout = (int)Math.round(timeout * 1000);
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "distributed-simulator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		processes = new ArrayList<Process>();
+	}
+
+
+	/**
+	 * Launches worker processes on the local host (with the same JVM and class path
+	 * as this one) and adds them to the pool. Workers listen on the loopback interface
+	 * only, and each of them uses a single thread (replicas in a JVM run one at a time,
+	 * see {@link ReplicaRandom#withGlobalGenerator}). Their output is forwarded to the 
+	 * standard error of this process. Workers are destroyed when the simulator is 
+	 * closed (or on shutdown, if it is not).
+	 * @param count number of workers
+	 * @throws IOException if the workers cannot be launched
+	 */
+	public synchronized void launchLocalWorkers(int count) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (int i = 0; i < count; i++) {
+			Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					SimulationWorker.class.getName(), "0", "1")
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			processes.add(process);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line = reader.readLine();
+			if ((line == null) || !line.startsWith(SimulationWorker.READY))
+				throw new IOException("Worker process failed to start");
+			int port = Integer.parseInt(line.substring(SimulationWorker.READY.length()).trim());
+			// keep reading the output of the worker, so that it never blocks writing it
+			Thread drain = new Thread(() -> {
+				try {
+					String output;
+					while ((output = reader.readLine()) != null) {
+						System.err.println("[worker " + port + "] " + output);
+					}
+				} catch (IOException e) {
+					// the worker has finished
+				}
+			}, "simulation-worker-output-" + port);
+			drain.setDaemon(true);
+			drain.start();
+			connections.add(new Connection(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+		}
+		if ((shutdownHook == null) && !processes.isEmpty()) {
+			shutdownHook = new Thread(this::close);
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		}
+	}
+
+
+	/**
+	 * Parses a comma-separated list of host:port addresses
+	 * @param addresses the list of addresses
+	 * @return the addresses
+	 */
+	public static List<InetSocketAddress> parseAddresses(String addresses) {
+		List<InetSocketAddress> list = new ArrayList<InetSocketAddress>();
+		for (String address: addresses.split(",")) {
+			address = address.trim();
+			if (address.isEmpty())
+				continue;
+			int colon = address.lastIndexOf(':');
+			list.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+		}
+		return list;
+	}
+
+
+	/**
+	 * Returns the number of workers
+	 * @return the number of workers
+	 */
+	public int getNumWorkers() {
+		return connections.size();
+	}
+
+
+	/**
+	 * Simulates some replicas of a solution on the workers
+	 * @param workload the environment and simulation parameters
+	 * @param accesses the exits to be added to the environment
+	 * @param replicas the indices of the replicas
+	 * @param solutionKey the solution key
+	 * @param limit the time limit of the simulations (in seconds)
+	 * @return the summaries of the replicas (in the same order as the indices)
+	 */
+	public SimulationSummary[] simulate(Workload workload, List<Access> accesses, int[] replicas, long solutionKey, double limit) {
+		SimulationSummary[] summaries = new SimulationSummary[replicas.length];
+		ConcurrentLinkedQueue<int[]> pending = new ConcurrentLinkedQueue<int[]>();
+		int chunk = Math.max(1, (replicas.length + CHUNKS_PER_WORKER * connections.size() - 1) / (CHUNKS_PER_WORKER * connections.size()));
+		for (int start = 0; start < replicas.length; start += chunk) {
+			int end = Math.min(replicas.length, start + chunk);
+			int[] positions = new int[end - start];
+			for (int i = start; i < end; i++) {
+				positions[i - start] = i;
+			}
+			pending.add(positions);
+		}
+
+		IOException failure = null;
+		for (int attempt = 0; (attempt < MAX_ATTEMPTS) && !pending.isEmpty(); attempt++) {
+			// each worker pulls chunks until none is left or it fails
+			List<Callable<IOException>> tasks = new ArrayList<Callable<IOException>>(connections.size());
+			for (Connection connection: connections) {
+				tasks.add(() -> {
+					int[] positions;
+					while ((positions = pending.poll()) != null) {
+						int[] chunkReplicas = new int[positions.length];
+						for (int i = 0; i < positions.length; i++) {
+							chunkReplicas[i] = replicas[positions[i]];
+						}
+						try {
+							SimulationSummary[] results = connection.simulate(workload, accesses, chunkReplicas, solutionKey, limit);
+							for (int i = 0; i < positions.length; i++) {
+								summaries[positions[i]] = results[i];
+							}
+						} catch (IOException e) {
+							// leave the chunk to the other workers
+							pending.add(positions);
+							return e;
+						}
+					}
+					return null;
+				});
+			}
+			try {
+				for (Future<IOException> future: executor.invokeAll(tasks)) {
+					IOException e = future.get();
+					if (e != null)
+						failure = e;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Distributed simulation interrupted", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Distributed simulation failed", e.getCause());
+			}
+		}
+		if (!pending.isEmpty())
+			throw new IllegalStateException("Distributed simulation failed: no worker available", failure);
+		return summaries;
+	}
+
+
+	/**
+	 * Closes the connections and destroys the worker processes launched by this simulator
+	 */
+	@Override
+	public synchronized void close() {
+		for (Connection connection: connections) {
+			connection.close();
+		}
+		for (Process process: processes) {
+			process.destroy();
+		}
+		processes.clear();
+		executor.shutdownNow();
+		if (shutdownHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// already shutting down (closed by the hook itself)
+			}
+			shutdownHook = null;
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
@@ -11,7 +11,7 @@ import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Shape;
 /**
  * Decodes a floating-point number in [0,1] to a perimetral access of an environment
  * @author ppgllrd, ccottap
- * @version 1.0
+ * @version 1.1
  */
 public class Double2AccessDecoder {
 	/** 
@@ -30,6 +30,23 @@ public class Double2AccessDecoder {
 	 * height of the environment
 	 */
 	private final double height;	
+	/**
+	 * height of the rectangles representing exits
+	 */
+	private static final double EXIT_HEIGHT = 0.1;
+	/**
+	 * maximum number of segments (rectangles) of an exit
+	 */
+	private final int maxSegments;
+	/**
+	 * names of accesses, indexed by label and segment (built on demand; 
+	 * races only cause a name to be built twice)
+	 */
+	private volatile String[] names;
+	/**
+	 * per-thread buffer for the segments of an exit
+	 */
+	private static final ThreadLocal<double[]> SEGMENT_BUFFER = ThreadLocal.withInitial(() -> new double[0]);
 	
 	
 	/**
@@ -40,6 +57,8 @@ public class Double2AccessDecoder {
 		exitWidth = eep.getExitWidth();
 		width = eep.getWidth();
 		height = eep.getHeight();
+		maxSegments = maxSegments(exitWidth, perimeterLength);
+		names = new String[0];
 	}
 
 	private Double2AccessDecoder(double width, double height, double exitWidth) {
@@ -47,6 +66,19 @@ public class Double2AccessDecoder {
 		this.height = height;
 		this.perimeterLength = 2*(width + height);
 		this.exitWidth = exitWidth;
+		maxSegments = maxSegments(exitWidth, perimeterLength);
+		names = new String[0];
+	}
+	
+	/**
+	 * Computes the maximum number of segments of an exit (an exit can span 
+	 * the four sides of the perimeter as many times as it wraps around it)
+	 * @param exitWidth width of the exits
+	 * @param perimeterLength length of the perimeter
+	 * @return the maximum number of segments of an exit
+	 */
+	private static int maxSegments(double exitWidth, double perimeterLength) {
+		return 4 * ((int)Math.ceil(exitWidth / perimeterLength) + 1);
 	}
 
 	/**
@@ -79,47 +111,93 @@ public class Double2AccessDecoder {
 
 		
 	/**
-	 * Returns a list of rectangles corresponding to segments of an exit located
-	 * at location with width `exitWidth`.
-	 * @param location  location across boundaries of domain.
-	 * @return a list of rectangles corresponding to segments of such exit.
+	 * Returns the maximum number of segments of an exit (i.e., the number of 
+	 * rectangles that {@link #locationToSegments} may write)
+	 * @return the maximum number of segments of an exit
 	 */
-	public List<Shape.Rectangle> locationToRectangles(double location) {
-		var exitHeight = 0.1; // an exit is going to be represented as a rectangle. This is its height
+	public int getMaxSegments() {
+		return maxSegments;
+	}
+	
+	/**
+	 * Writes the rectangles corresponding to segments of an exit located at 
+	 * location with width `exitWidth` into a buffer, without allocating any object. 
+	 * Each rectangle takes 4 consecutive positions (left, bottom, width, height), 
+	 * so the buffer must have room for {@link #getMaxSegments()} rectangles.
+	 * @param location location across boundaries of domain (any value, it is taken modulo the perimeter length)
+	 * @param buffer the buffer where the rectangles are written
+	 * @param offset the position of the buffer where the first rectangle is written
+	 * @return the number of rectangles written
+	 */
+	public int locationToSegments(double location, double[] buffer, int offset) {
 		var remainingExitLength = exitWidth;
-		List<Shape.Rectangle> rectangles = new LinkedList<>();
+		location %= perimeterLength;
+		if (location < 0)
+			location += perimeterLength;
+		int segments = 0;
+		int pos = offset;
 		while(remainingExitLength > 0) {
-			while (location >= perimeterLength)
+			if (location >= perimeterLength)
 				location -= perimeterLength;
+			double length;
 			if (location < width) {
 				// horizontal. bottom. left to right
 				var left = location;
-				var rectangleWidth = Math.min(remainingExitLength, width - left);
-				rectangles.add(new Shape.Rectangle(left, 0, rectangleWidth, exitHeight));
-				location += rectangleWidth;
-				remainingExitLength -= rectangleWidth;
+				length = Math.min(remainingExitLength, width - left);
+				pos = put(buffer, pos, left, 0, length, EXIT_HEIGHT);
 			} else if (location < (width + height)) {
 				// vertical. right. bottom to top
 				var bottom = location - width;
-				var rectangleHeight = Math.min(remainingExitLength, height - bottom);
-				rectangles.add(new Shape.Rectangle(width - exitHeight, bottom, exitHeight, rectangleHeight));
-				location += rectangleHeight;
-				remainingExitLength -= rectangleHeight;
+				length = Math.min(remainingExitLength, height - bottom);
+				pos = put(buffer, pos, width - EXIT_HEIGHT, bottom, EXIT_HEIGHT, length);
 			} else if (location < (2 * width + height)) {
 				// horizontal. top. right to left
 				var right = width - (location - (width + height));
-				var rectangleWidth = Math.min(remainingExitLength, right);
-				rectangles.add(new Shape.Rectangle(right - rectangleWidth, height - exitHeight, rectangleWidth, exitHeight));
-				location += rectangleWidth;
-				remainingExitLength -= rectangleWidth;
+				length = Math.min(remainingExitLength, right);
+				pos = put(buffer, pos, right - length, height - EXIT_HEIGHT, length, EXIT_HEIGHT);
 			} else {
 				// vertical. left. top to bottom
 				var top = height - (location - (2 * width + height));
-				var rectangleHeight = Math.min(remainingExitLength, top);
-				rectangles.add(new Shape.Rectangle(0, top - rectangleHeight, exitHeight, rectangleHeight));
-				location += rectangleHeight;
-				remainingExitLength -= rectangleHeight;
+				length = Math.min(remainingExitLength, top);
+				pos = put(buffer, pos, 0, top - length, EXIT_HEIGHT, length);
 			}
+			location += length;
+			remainingExitLength -= length;
+			segments++;
+		}
+		return segments;
+	}
+	
+	/**
+	 * Writes a rectangle into a buffer
+	 * @param buffer the buffer
+	 * @param pos the position of the buffer where the rectangle is written
+	 * @param left left coordinate of the rectangle
+	 * @param bottom bottom coordinate of the rectangle
+	 * @param w width of the rectangle
+	 * @param h height of the rectangle
+	 * @return the position of the buffer after the rectangle
+	 */
+	private static int put(double[] buffer, int pos, double left, double bottom, double w, double h) {
+		buffer[pos] = left;
+		buffer[pos + 1] = bottom;
+		buffer[pos + 2] = w;
+		buffer[pos + 3] = h;
+		return pos + 4;
+	}
+		
+	/**
+	 * Returns a list of rectangles corresponding to segments of an exit located
+	 * at location with width `exitWidth`.
+	 * @param location  location across boundaries of domain.
+	 * @return a list of rectangles corresponding to segments of such exit.
+	 */
+	public List<Shape.Rectangle> locationToRectangles(double location) {
+		double[] buffer = new double[4 * maxSegments];
+		int segments = locationToSegments(location, buffer, 0);
+		List<Shape.Rectangle> rectangles = new ArrayList<>(segments);
+		for (int r = 0, pos = 0; r < segments; r++, pos += 4) {
+			rectangles.add(new Shape.Rectangle(buffer[pos], buffer[pos + 1], buffer[pos + 2], buffer[pos + 3]));
 		}
 		return rectangles;
 	}
@@ -134,16 +212,56 @@ public class Double2AccessDecoder {
 	 * @return a list with the corresponding accesses.
 	 */
 	public List<Access> decodeAccess (double location, int label, int baseID) {
-		List<Access> exits = new ArrayList<>();
-		int id = baseID;
-		int r = 0;
-		for(var rectangle : locationToRectangles(location)) {
-			var access = new Access(id, String.format("access %d-%d", label, r), "", rectangle);
-			exits.add(access);
-			r++;
-			id++;
-		}
+		List<Access> exits = new ArrayList<>(2);
+		decodeAccess(location, label, baseID, exits);
 		return exits;
 	}
+	
+	/**
+	 * Appends to a list the accesses corresponding to a location along the perimeter (they can 
+	 * be more than one because the access may run across a corner, and this would be considered as
+	 * two adjacent accesses). Access names are only built the first time they are needed.
+	 * @param location the base location (a value between 0 and perimeterLength)
+	 * @param label a number to use in the access name
+	 * @param baseID the id to give to the access (sequentially incremented if there are more than one).
+	 * @param exits the list where the accesses are appended
+	 * @return the number of accesses appended
+	 */
+	public int decodeAccess (double location, int label, int baseID, List<Access> exits) {
+		double[] buffer = SEGMENT_BUFFER.get();
+		if (buffer.length < 4 * maxSegments) {
+			buffer = new double[4 * maxSegments];
+			SEGMENT_BUFFER.set(buffer);
+		}
+		int segments = locationToSegments(location, buffer, 0);
+		for (int r = 0, pos = 0; r < segments; r++, pos += 4) {
+			var rectangle = new Shape.Rectangle(buffer[pos], buffer[pos + 1], buffer[pos + 2], buffer[pos + 3]);
+			exits.add(new Access(baseID + r, accessName(label, r), "", rectangle));
+		}
+		return segments;
+	}
+	
+	/**
+	 * Returns the name of an access (building it only the first time it is required)
+	 * @param label the number used in the access name
+	 * @param segment index of the segment of the access
+	 * @return the name of the access
+	 */
+	private String accessName(int label, int segment) {
+		if ((label < 0) || (segment >= maxSegments))
+			return "access " + label + "-" + segment;
+		String[] cache = names;
+		int index = label * maxSegments + segment;
+		if (index >= cache.length) {
+			cache = Arrays.copyOf(cache, Math.max(index + 1, 2 * cache.length));
+			names = cache;
+		}
+		String name = cache[index];
+		if (name == null) {
+			name = "access " + label + "-" + segment;
+			cache[index] = name;
+		}
+		return name;
+	}
 
 }
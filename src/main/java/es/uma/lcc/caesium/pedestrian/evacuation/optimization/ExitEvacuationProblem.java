@@ -1,9 +1,22 @@
 package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
 
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -22,20 +35,23 @@ import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.Simulati
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Domain;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Environment;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Obstacle;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Shape;
 import es.uma.lcc.caesium.statistics.Descriptive;
 
 import static es.uma.lcc.caesium.statistics.Descriptive.*;
-import static es.uma.lcc.caesium.statistics.Random.random;
 
 /**
  * Evacuation problem: given an environment, find the location of a number
  * of exits in order to speed-up evacuation in case of emergency. Assumes 
  * that the environment has a single domain (in addition to the outside).
+ * The problem must be closed once it is no longer needed, so that the pool of
+ * threads and the worker processes it launched are released.
  * @author ccottap, ppgllrd
  * @version 1.0
  *
  */
-public class ExitEvacuationProblem {
+public class ExitEvacuationProblem implements AutoCloseable {
 	/**
 	 * Default width of exits in meters
 	 */
@@ -66,17 +82,22 @@ public class ExitEvacuationProblem {
 	private double exitWidth;
 	/**
 	 * A list of the exits initially contained in the environment (it may be empty). 
-	 * These are kept fixed, and stored in order to restore the environment after adding 
-	 * potential exits during simulation.
+	 * These are kept fixed, and added to the potential exits of every simulation.
 	 */
-	private final ArrayList<Access> fixedAccesses;
+	private final List<Access> fixedAccesses;
+	/**
+	 * An immutable snapshot of the obstacles in the domain, used to build the 
+	 * scenario of every simulation without modifying the environment.
+	 */
+	private final List<Obstacle> obstacles;
 	/**
 	 * the parameters used by the simulator
 	 */
 	private final SimulationConfiguration simulationConf;
 
 	/**
-	 * the domain where simulation takes place (assumes a single domain)
+	 * the domain where simulation takes place (assumes a single domain). It is
+	 * used as a template for the scenarios and never modified.
 	 */
 	private final Domain domain;
 
@@ -103,6 +124,134 @@ public class ExitEvacuationProblem {
 	 * the number of independent simulations to run for each evaluation
 	 */
 	private final int numSimulations;
+	
+	/**
+	 * minimum number of simulations in adaptive evaluations (0 if the number of simulations is fixed)
+	 */
+	private final int minSimulations;
+	
+	/**
+	 * maximum standard error of the mean fitness in adaptive evaluations
+	 */
+	private final double tolerance;
+	
+	/**
+	 * number of evaluations performed
+	 */
+	private final LongAdder evaluations = new LongAdder();
+	
+	/**
+	 * number of simulations performed in evaluations
+	 */
+	private final LongAdder evaluationSimulations = new LongAdder();
+	
+	/**
+	 * base seed of the random streams of the simulations
+	 */
+	private final long seed;
+	
+	/**
+	 * the number of threads used to run evaluations and requests to worker processes 
+	 * concurrently (1 = sequential). Replicas simulated in this JVM run one at a time 
+	 * (see {@link ReplicaRandom#withGlobalGenerator}), so simulations only run in 
+	 * parallel on worker processes.
+	 */
+	private final int numThreads;
+	
+	/**
+	 * pool of threads used to run evaluations and requests to worker processes 
+	 * concurrently (null if they are sequential)
+	 */
+	private final ForkJoinPool executor;
+	
+	/**
+	 * estimate of the memory (in bytes) required per cell of a scenario
+	 */
+	private static final long SCENARIO_BYTES_PER_CELL = 32;
+	
+	/**
+	 * cache of scenarios (including their static floor field) indexed by the cells
+	 * of the exits added to the domain (null if scenarios are not cached)
+	 */
+	private final BoundedCache<ExitLayoutKey, Scenario> scenarioCache;
+	
+	/**
+	 * maximum number of exit rectangles whose cells are kept
+	 */
+	private static final int MAX_EXIT_CELLS = 65536;
+	/**
+	 * cells of the automaton occupied by each exit rectangle (rasterized once)
+	 */
+	private final BoundedCache<ExitLayoutKey, int[]> exitCells = new BoundedCache<ExitLayoutKey, int[]>(MAX_EXIT_CELLS);
+	
+	/**
+	 * maximum number of single-exit distance maps kept when composing floor fields
+	 */
+	private static final int MAX_DISTANCE_MAPS = 4096;
+	/**
+	 * types of static floor field (by name in the configuration)
+	 */
+	private static final Map<String, Function<Scenario, FloorField>> STATIC_FLOOR_FIELDS = Map.of(
+			"DijkstraStaticMoore", DijkstraStaticFloorFieldWithMooreNeighbourhood::of,
+			"DijkstraStaticVonNeumann", DijkstraStaticFloorFieldWithVonNewmanNeighbourhood::of,
+			"ManhattanStatic", ManhattanStaticFloorField::of);
+	
+	/**
+	 * builder of static floor fields from single-exit distance maps (null if 
+	 * floor fields are computed from scratch for each scenario)
+	 */
+	private final FloorFieldComposer floorFieldComposer;
+	
+	/**
+	 * indices of perimeter positions, indexed by the precision of exit locations
+	 */
+	private final ConcurrentHashMap<Double, PerimeterCellIndex> perimeterCellIndices = new ConcurrentHashMap<Double, PerimeterCellIndex>();
+	
+	/**
+	 * height of the rectangles representing exits (as used by the decoder)
+	 */
+	private static final double EXIT_HEIGHT = 0.1;
+	
+	/**
+	 * persistent store of simulation results (null if results are not stored)
+	 */
+	private final SimulationStore store;
+	
+	/**
+	 * simulator running replicas on worker processes (null if replicas are run in this JVM)
+	 */
+	private final DistributedSimulator distributedSimulator;
+	
+	/**
+	 * definition of the environment and simulation parameters shipped to worker processes
+	 */
+	private final DistributedSimulator.Workload workload;
+	
+	/**
+	 * whether the pool of threads and the worker processes belong to this problem 
+	 * (false if they are shared with another problem)
+	 */
+	private final boolean owner;
+	
+	/**
+	 * whether the problem has been closed
+	 */
+	private boolean closed;
+
+	/**
+	 * coarse fidelity tiers used to screen solutions (created on first use)
+	 */
+	private volatile List<FidelityTier> fidelityTiers;
+	
+	/**
+	 * precomputed fitness of single-exit layouts (null if not available)
+	 */
+	private volatile SingleExitLandscape singleExitLandscape;
+	
+	/**
+	 * crowds of the replicas (sampled once and replayed for every layout)
+	 */
+	private final CrowdBank crowdBank;
 
 	/**
 	 * the remaining parameters for the simulation
@@ -119,6 +268,20 @@ public class ExitEvacuationProblem {
 	 * @param simulationConf the parameters used by the simulator
 	 */
 	public ExitEvacuationProblem(Environment environment, int numExits, double width, SimulationConfiguration simulationConf) {
+		this(environment, numExits, width, simulationConf, null);
+	}
+
+	/**
+	 * Creates a problem, sharing the pool of threads and the worker processes of 
+	 * another problem if given (e.g., the evaluation problem of a coarse fidelity tier)
+	 * @param environment the environment
+	 * @param numExits the number of exits
+	 * @param width the exit width
+	 * @param simulationConf the parameters used by the simulator
+	 * @param parent the problem whose pool of threads and worker processes are shared (null if none)
+	 */
+	private ExitEvacuationProblem(Environment environment, int numExits, double width, SimulationConfiguration simulationConf, 
+			ExitEvacuationProblem parent) {
 		assert environment.getDomainsIDs().size() == 1 : "Too many domains";
 		this.environment = environment;
 		this.numExits = numExits;
@@ -128,10 +291,23 @@ public class ExitEvacuationProblem {
 		perimeterLength = 2*(domain.getHeight()+domain.getWidth());
 		diameter2 = Math.pow(domain.getHeight(), 2) + Math.pow(domain.getWidth(), 2);
 		diameter = Math.sqrt(diameter2);
-		fixedAccesses = new ArrayList<>(this.environment.getDomain(1).getAccesses());
+		fixedAccesses = List.copyOf(domain.getAccesses());
+		obstacles = List.copyOf(domain.getObstacles());
 		timeLimit = simulationConf.getDouble("timeLimit");
 		timeLimit2 = timeLimit * timeLimit;
 		numSimulations = simulationConf.getInt("numSimulations");
+		seed = simulationConf.getInt("seed");
+		minSimulations = simulationConf.getInt("adaptive/minSimulations");
+		tolerance = simulationConf.getDouble("adaptive/tolerance");
+		owner = (parent == null);
+		if (parent == null) {
+			numThreads = Math.max(1, simulationConf.getInt("numThreads"));
+			executor = (numThreads > 1) ? new ForkJoinPool(numThreads) : null;
+		}
+		else {
+			numThreads = parent.numThreads;
+			executor = parent.executor;
+		}
 		cellDimension = simulationConf.getDouble("cellularAutomatonParameters/cellDimension");
 		pedestrianReferenceVelocity = simulationConf.getDouble("crowd/pedestrianReferenceVelocity");
 		attractionBiasMin = simulationConf.getDouble("crowd/attractionBias/min");
@@ -142,19 +318,73 @@ public class ExitEvacuationProblem {
 		velocityFactorMax = simulationConf.getDouble("crowd/velocityFactor/max");
 		numPedestriansMin = simulationConf.getInt("crowd/numPedestrians/min");
 		numPedestriansMax = simulationConf.getInt("crowd/numPedestrians/max");
-		floorField =
-				switch (simulationConf.getString("cellularAutomatonParameters/floorField")) {
-					case "DijkstraStaticMoore" -> DijkstraStaticFloorFieldWithMooreNeighbourhood::of;
-					case "DijkstraStaticVonNeumann" -> DijkstraStaticFloorFieldWithVonNewmanNeighbourhood::of;
-					case "ManhattanStatic" -> ManhattanStaticFloorField::of;
-					default -> throw new IllegalArgumentException("Invalid floor field in configuration");
-				};
+		crowdBank = new CrowdBank(seed, numPedestriansMin, numPedestriansMax, attractionBiasMin, attractionBiasMax, 
+				crowdRepulsionMin, crowdRepulsionMax, velocityFactorMin, velocityFactorMax);
+		String floorFieldType = simulationConf.getString("cellularAutomatonParameters/floorField");
+		floorField = STATIC_FLOOR_FIELDS.get(floorFieldType);
+		if (floorField == null)
+			throw new IllegalArgumentException("Invalid floor field in configuration");
+		int scenarioCacheEntries = simulationConf.getInt("scenarioCache/maxEntries");
+		if (scenarioCacheEntries > 0) {
+			long cells = (long) (Math.ceil(domain.getWidth() / cellDimension) * Math.ceil(domain.getHeight() / cellDimension));
+			long scenarioBytes = cells * SCENARIO_BYTES_PER_CELL;
+			long maxBytes = simulationConf.getInt("scenarioCache/maxMegabytes") * 1024L * 1024L;
+			scenarioCache = new BoundedCache<ExitLayoutKey, Scenario>(scenarioCacheEntries, maxBytes, s -> scenarioBytes);
+		}
+		else {
+			scenarioCache = null;
+		}
+		String storeDirectory = simulationConf.getString("store");
+		if (storeDirectory.isEmpty()) {
+			store = null;
+		}
+		else {
+			try {
+				store = SimulationStore.open(Path.of(storeDirectory), 
+						SimulationStore.hash(environment.jsonPrettyPrinted()), SimulationStore.hash(simulationConf.fingerprint()));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open simulation store in " + storeDirectory, e);
+			}
+		}
+		var workers = DistributedSimulator.parseAddresses(simulationConf.getString("workers/addresses"));
+		int localWorkers = simulationConf.getInt("workers/local");
+		if (parent != null) {
+			distributedSimulator = parent.distributedSimulator;
+		}
+		else if (workers.isEmpty() && (localWorkers <= 0)) {
+			distributedSimulator = null;
+		}
+		else {
+			distributedSimulator = new DistributedSimulator(workers, simulationConf.getDouble("workers/timeout"));
+			try {
+				distributedSimulator.launchLocalWorkers(Math.max(0, localWorkers));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot launch local simulation workers", e);
+			}
+		}
+		if (distributedSimulator == null) {
+			workload = null;
+		}
+		else {
+			String json = environment.jsonPrettyPrinted();
+			long id = SimulationStore.hash(json) * 31 + SimulationStore.hash(simulationConf.fingerprint());
+			workload = new DistributedSimulator.Workload(id, numExits, json, Map.copyOf(simulationConf.getParameters()));
+		}
+		if (Boolean.parseBoolean(simulationConf.getString("cellularAutomatonParameters/composedFloorField"))) {
+			long maxBytes = simulationConf.getInt("scenarioCache/maxMegabytes") * 1024L * 1024L;
+			floorFieldComposer = new FloorFieldComposer(this::singleExitFloorField, MAX_DISTANCE_MAPS, maxBytes);
+		}
+		else {
+			floorFieldComposer = null;
+		}
 		neighbourhood =
 				switch (simulationConf.getString("cellularAutomatonParameters/neighborhood")) {
 					case "Moore" -> MooreNeighbourhood::of;
 					case "VonNeumann" -> VonNeumannNeighbourhood::of;
 					default -> throw new IllegalArgumentException("Invalid neighbourhood in configuration");
 				};
+		if ((floorFieldComposer != null) && !isComposedFloorFieldExact())
+			throw new IllegalArgumentException("Composed floor fields differ from direct ones for " + floorFieldType);
 	}
 
 	/**
@@ -231,6 +461,93 @@ public class ExitEvacuationProblem {
 	public double getDiameter() {
 		return diameter;
 	}
+	
+	
+	/**
+	 * Returns the number of simulations performed in each evaluation
+	 * @return the number of simulations performed in each evaluation
+	 */
+	public int getNumSimulations() {
+		return numSimulations;
+	}
+	
+	
+	/**
+	 * Returns the simulation configuration
+	 * @return the simulation configuration
+	 */
+	public SimulationConfiguration getSimulationConfiguration() {
+		return simulationConf;
+	}
+	
+	
+	/**
+	 * Returns the number of threads used to run evaluations and requests to worker processes
+	 * @return the number of threads used to run evaluations and requests to worker processes
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+	
+	
+	/**
+	 * Returns the cache of scenarios
+	 * @return the cache of scenarios, or null if scenarios are not cached
+	 */
+	public BoundedCache<ExitLayoutKey, Scenario> getScenarioCache() {
+		return scenarioCache;
+	}
+	
+	
+	/**
+	 * Indicates whether simulations are run on worker processes
+	 * @return true if simulations are run on worker processes, false if they are run in this JVM
+	 */
+	public boolean isDistributed() {
+		return distributedSimulator != null;
+	}
+	
+	
+	/**
+	 * Returns the pool of threads used to run evaluations and requests to worker processes concurrently
+	 * @return the pool of threads, or null if evaluations are run sequentially
+	 */
+	public ForkJoinPool getExecutor() {
+		return executor;
+	}
+	
+	
+	/**
+	 * Releases the pool of threads and the worker processes of the problem (unless 
+	 * they are shared with another problem) and its simulation store, and closes the 
+	 * problems of the coarse fidelity tiers. Closing a problem twice has no effect.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		List<FidelityTier> tiers = fidelityTiers;
+		if (tiers != null) {
+			for (FidelityTier tier: tiers) {
+				if (tier.problem != this)
+					tier.problem.close();
+			}
+		}
+		if (owner) {
+			if (distributedSimulator != null)
+				distributedSimulator.close();
+			if (executor != null)
+				executor.shutdown();
+		}
+		if (store != null) {
+			try {
+				store.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot close simulation store " + store.getPath(), e);
+			}
+		}
+	}
 
 	
 	/**
@@ -247,109 +564,821 @@ public class ExitEvacuationProblem {
 	/**
 	 * Simulates the evacuation given the list of exits are added
 	 * to the environment, and return a list with the outcome of each simulation.
+	 * If worker processes are configured, simulations are spread over them; otherwise 
+	 * they are run one after the other in this JVM, as the simulator draws from a 
+	 * global generator. The environment is not modified, so several evaluations can 
+	 * run concurrently on the same problem (only their replicas run one at a time).
 	 * @param accesses list of exits to be added to the environment
 	 * @param simulations number of simulations to perform
 	 * @return summaries of the simulations performed
 	 */
 	public List<SimulationSummary> simulate (List<Access> accesses, int simulations) {
-		var domainAccesses = domain.getAccesses();
-		domainAccesses.addAll(accesses);
-
-		// simulation results
-		List<SimulationSummary> summaries = new ArrayList<SimulationSummary>(simulations);
+		return simulate(accesses, 0, simulations);
+	}
+	
+	/**
+	 * Simulates the evacuation given the list of exits are added to the 
+	 * environment, running replicas first, first+1, ..., first+simulations-1.
+	 * @param accesses list of exits to be added to the environment
+	 * @param first index of the first replica
+	 * @param simulations number of simulations to perform
+	 * @return summaries of the simulations performed
+	 */
+	public List<SimulationSummary> simulate (List<Access> accesses, int first, int simulations) {
+		return simulate(accesses, first, simulations, 0L);
+	}
+	
+	/**
+	 * Simulates the evacuation given the list of exits are added to the 
+	 * environment, running replicas first, first+1, ..., first+simulations-1.
+	 * The random stream of each replica depends on the base seed of the configuration, 
+	 * the replica index and the key provided, so the results are the same regardless 
+	 * of the number of threads used. If a persistent store is configured, replicas 
+	 * already in the store are not simulated again, and new ones are added to it.
+	 * @param accesses list of exits to be added to the environment
+	 * @param first index of the first replica
+	 * @param simulations number of simulations to perform
+	 * @param solutionKey a key of the solution to make replicas solution-dependent (0 otherwise)
+	 * @return summaries of the simulations performed
+	 */
+	public List<SimulationSummary> simulate (List<Access> accesses, int first, int simulations, long solutionKey) {
+		return simulate(accesses, first, simulations, solutionKey, timeLimit);
+	}
+	
+	/**
+	 * Simulates the evacuation given the list of exits are added to the 
+	 * environment, running replicas first, first+1, ..., first+simulations-1
+	 * with a given time limit. Stored replicas were run with the time limit of the 
+	 * configuration, so under a different limit they are only reused if everyone 
+	 * evacuated within it (the simulation of a replica is the same up to the shorter 
+	 * limit), and simulated again otherwise. Replicas run with a different limit are 
+	 * not added to the store.
+	 * @param accesses list of exits to be added to the environment
+	 * @param first index of the first replica
+	 * @param simulations number of simulations to perform
+	 * @param solutionKey a key of the solution to make replicas solution-dependent (0 otherwise)
+	 * @param limit the time limit of the simulations (in seconds)
+	 * @return summaries of the simulations performed
+	 */
+	private List<SimulationSummary> simulate (List<Access> accesses, int first, int simulations, long solutionKey, double limit) {
+		if (store == null) {
+			SimulationSummary[] summaries = new SimulationSummary[simulations];
+			int[] replicas = new int[simulations];
+			for (int i = 0; i < simulations; i++) {
+				replicas[i] = first + i;
+			}
+			simulate(accesses, replicas, summaries, solutionKey, limit);
+			return new ArrayList<SimulationSummary>(List.of(summaries));
+		}
+		
+		try {
+			// look up stored replicas and simulate the missing ones
+			ExitLayoutKey key = ExitLayoutKey.of(accesses);
+			SimulationSummary[] summaries = store.lookup(key, solutionKey, first, simulations);
+			int missing = 0;
+			for (int i = 0; i < simulations; i++) {
+				SimulationSummary s = summaries[i];
+				if ((s != null) && (limit != timeLimit) && ((s.nonEvacuees() > 0) || (s.maxTime() > limit)))
+					summaries[i] = s = null;
+				if (s == null)
+					missing++;
+			}
+			if (missing > 0) {
+				int[] replicas = new int[missing];
+				for (int i = 0, m = 0; i < simulations; i++) {
+					if (summaries[i] == null)
+						replicas[m++] = first + i;
+				}
+				SimulationSummary[] results = new SimulationSummary[missing];
+				simulate(accesses, replicas, results, solutionKey, limit);
+				if (limit == timeLimit)
+					store.append(key, solutionKey, replicas, results);
+				for (int m = 0; m < missing; m++) {
+					summaries[replicas[m] - first] = results[m];
+				}
+			}
+			return new ArrayList<SimulationSummary>(List.of(summaries));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot access simulation store " + store.getPath(), e);
+		}
+	}
+	
+	
+	/**
+	 * Runs a collection of replicas given the list of exits are added to the environment
+	 * (on the worker processes if a distributed simulator is configured).
+	 * @param accesses list of exits to be added to the environment
+	 * @param replicas indices of the replicas
+	 * @param summaries array where the summary of each replica is stored (in the same order as the indices)
+	 * @param solutionKey a key of the solution to make replicas solution-dependent (0 otherwise)
+	 * @param limit the time limit of the simulations (in seconds)
+	 */
+	void simulate (List<Access> accesses, int[] replicas, SimulationSummary[] summaries, long solutionKey, double limit) {
+		if (distributedSimulator != null) {
+			SimulationSummary[] results = distributedSimulator.simulate(workload, accesses, replicas, solutionKey, limit);
+			System.arraycopy(results, 0, summaries, 0, results.length);
+			return;
+		}
 		
-
-		// simulate ----------------------------------
-
 		// create common scenario for all simulations
-		Scenario scenario = new Scenario.FromDomainBuilder(domain)
+		Scenario scenario = createScenario(accesses);
+		simulate(scenario, limit, replicas, summaries, solutionKey);
+	}
+	
+	
+	/**
+	 * Runs a collection of replicas on a scenario, with a given time limit. Replicas 
+	 * are run one after the other with the same automaton, as replicas run in this 
+	 * JVM cannot overlap (see {@link ReplicaRandom#withGlobalGenerator}).
+	 * If the thread is interrupted (e.g., a worker whose request is cancelled), the 
+	 * remaining replicas are not run.
+	 * @param scenario the scenario of the simulations
+	 * @param limit time limit of each simulation (in seconds)
+	 * @param replicas indices of the replicas
+	 * @param summaries array where the summary of each replica is stored (in the same order as the indices)
+	 * @param solutionKey a key of the solution to make replicas solution-dependent (0 otherwise)
+	 */
+	private void simulate (Scenario scenario, double limit, int[] replicas, SimulationSummary[] summaries, long solutionKey) {
+		// create automaton for all simulations
+		var automaton = createAutomaton(scenario, limit);
+		for(int i = 0; i < replicas.length; i++) {
+			if (Thread.currentThread().isInterrupted())
+				throw new CancellationException("Simulation cancelled");
+			summaries[i] = simulate(automaton, replicas[i], solutionKey);
+		}
+	}
+	
+	
+	/**
+	 * Returns the scenario for a simulation in which the given exits are added to 
+	 * the domain. If scenarios are cached, a scenario previously built for exits 
+	 * occupying the same cells is reused (scenarios are not modified by the automata).
+	 * @param accesses list of exits to be added to the domain
+	 * @return the scenario for the simulation
+	 */
+	private Scenario createScenario(List<Access> accesses) {
+		ExitLayoutKey cells = exitCells(accesses);
+		if (scenarioCache == null)
+			return buildScenario(accesses, cells);
+		else
+			return scenarioCache.computeIfAbsent(cells, key -> buildScenario(accesses, key));
+	}
+	
+	
+	/**
+	 * Returns the index of perimeter positions for a given precision of exit locations 
+	 * (shared by all the optimizers of this problem using the same precision)
+	 * @param precision the precision of the locations of exits
+	 * @return the index of perimeter positions
+	 */
+	public PerimeterCellIndex getPerimeterCellIndex(double precision) {
+		return perimeterCellIndices.computeIfAbsent(precision, 
+				p -> new PerimeterCellIndex(new Double2AccessDecoder(this), getPerimeterLength(), p, this::exitCells));
+	}
+	
+	
+	/**
+	 * Returns the cells of the automaton occupied by an exit given by its segments
+	 * @param segments the segments of the exit (4 values per segment: left, bottom, width, height)
+	 * @return the sorted cells (row * columns + column) occupied by the exit
+	 */
+	private int[] exitCells(double[] segments) {
+		List<Access> accesses = new ArrayList<Access>(segments.length / 4);
+		for (int i = 0; i < segments.length; i += 4) {
+			var rectangle = new Shape.Rectangle(segments[i], segments[i + 1], segments[i + 2], segments[i + 3]);
+			accesses.add(new Access(i / 4, "access " + i / 4, "", rectangle));
+		}
+		long[] cells = exitCells(accesses).toArray();
+		int[] result = new int[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			result[i] = (int) cells[i];
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the cells of the automaton occupied by a collection of exits. The 
+	 * cells of each exit rectangle are rasterized the first time it is used.
+	 * @param accesses the exits
+	 * @return the key made of the cells occupied by the exits
+	 */
+	private ExitLayoutKey exitCells(List<Access> accesses) {
+		List<int[]> cells = new ArrayList<int[]>(accesses.size());
+		int total = 0;
+		for (Access access: accesses) {
+			int[] c = exitCells.computeIfAbsent(ExitLayoutKey.of(List.of(access)), key -> rasterize(access));
+			cells.add(c);
+			total += c.length;
+		}
+		long[] all = new long[total];
+		int k = 0;
+		for (int[] c: cells) {
+			for (int cell: c) {
+				all[k++] = cell;
+			}
+		}
+		return ExitLayoutKey.ofCells(all);
+	}
+	
+	
+	/**
+	 * Returns the cells of the automaton occupied by an exit, as rasterized by the 
+	 * scenario builder (only cells near the perimeter are inspected)
+	 * @param access the exit
+	 * @return the sorted cells (row * columns + column) occupied by the exit
+	 */
+	private int[] rasterize(Access access) {
+		Scenario scenario = buildScenario(List.of(), List.of(access), ManhattanStaticFloorField::of);
+		int rows = scenario.getRows();
+		int columns = scenario.getColumns();
+		int depth = (int) Math.ceil(EXIT_HEIGHT / cellDimension) + 1;
+		int[] cells = new int[2 * depth * (rows + columns)];
+		int n = 0;
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				boolean border = (r < depth) || (r >= rows - depth) || (c < depth) || (c >= columns - depth);
+				if (border && scenario.isExit(r, c))
+					cells[n++] = r * columns + c;
+			}
+		}
+		return Arrays.copyOf(cells, n);
+	}
+	
+	
+	/**
+	 * Creates the scenario for a simulation from a snapshot of the domain with the 
+	 * fixed exits, placing the given exits directly on the cells they occupy. The 
+	 * shared domain is left untouched. If floor fields are composed, the static floor 
+	 * field is assembled from the distance maps of the individual exits.
+	 * @param accesses list of exits to be added to the domain
+	 * @param cells the cells occupied by the exits (as returned by {@link #exitCells(List)})
+	 * @return the scenario for the simulation
+	 */
+	private Scenario buildScenario(List<Access> accesses, ExitLayoutKey cells) {
+		Scenario scenario;
+		if ((floorFieldComposer == null) || (fixedAccesses.isEmpty() && accesses.isEmpty())) {
+			scenario = buildScenario(fixedAccesses, List.of(), floorField);
+		}
+		else {
+			List<Access> all = new ArrayList<Access>(fixedAccesses.size() + accesses.size());
+			all.addAll(fixedAccesses);
+			all.addAll(accesses);
+			scenario = buildScenario(fixedAccesses, List.of(), s -> floorFieldComposer.compose(all));
+		}
+		int columns = scenario.getColumns();
+		for (long cell: cells.toArray()) {
+			scenario.setExit((int) (cell / columns), (int) (cell % columns));
+		}
+		return scenario;
+	}
+	
+	
+	/**
+	 * Computes the static floor field of the domain with a single exit (and no fixed exits)
+	 * @param access the exit
+	 * @return the static floor field
+	 */
+	private FloorField singleExitFloorField(Access access) {
+		return staticFloorField(List.of(), List.of(access), floorField);
+	}
+	
+	
+	/**
+	 * Computes the static floor field of the domain with the given exits
+	 * @param fixed first list of exits to be added to the domain
+	 * @param accesses second list of exits to be added to the domain
+	 * @param type the type of static floor field
+	 * @return the static floor field
+	 */
+	private FloorField staticFloorField(List<Access> fixed, List<Access> accesses, Function<Scenario, FloorField> type) {
+		var field = new ArrayList<FloorField>(1);
+		buildScenario(fixed, accesses, scenario -> {
+			FloorField f = type.apply(scenario);
+			field.add(f);
+			return f;
+		});
+		return field.get(0);
+	}
+	
+	
+	/**
+	 * Checks whether composing the distance maps of individual exits gives the same 
+	 * static floor field (of the type in the configuration) as computing it directly. 
+	 * The check uses a layout with the fixed exits and two exits on opposite sides of 
+	 * the perimeter (composed by the floor field composer of the problem). Composition is only exact if the field of each cell is the raw 
+	 * distance to the closest exit (e.g., not normalized by the largest distance).
+	 * @return true if composition is exact, false otherwise
+	 */
+	boolean isComposedFloorFieldExact() {
+		Double2AccessDecoder decoder = new Double2AccessDecoder(this);
+		List<Access> accesses = new ArrayList<Access>(2 * decoder.getMaxSegments());
+		decoder.decodeAccess(0.125 * getPerimeterLength(), 0, 0, accesses);
+		decoder.decodeAccess(0.625 * getPerimeterLength(), 1, decoder.getMaxSegments(), accesses);
+		List<Access> all = new ArrayList<Access>(fixedAccesses.size() + accesses.size());
+		all.addAll(fixedAccesses);
+		all.addAll(accesses);
+		// the distance maps of the fixed exits are kept by the composer for later use
+		return floorFieldComposer.compose(all).matches(staticFloorField(fixedAccesses, accesses, floorField));
+	}
+	
+	
+	/**
+	 * Creates a scenario from a snapshot of the domain with the given exits. 
+	 * The shared domain is left untouched.
+	 * @param fixed first list of exits to be added to the domain
+	 * @param accesses second list of exits to be added to the domain
+	 * @param field the static floor field to use
+	 * @return the scenario
+	 */
+	private Scenario buildScenario(List<Access> fixed, List<Access> accesses, Function<Scenario, FloorField> field) {
+		Domain snapshot = new Domain(1, domain.getWidth(), domain.getHeight());
+		for (Obstacle obstacle: obstacles) {
+			snapshot.addObstacle(obstacle);
+		}
+		for (Access access: fixed) {
+			snapshot.addAccess(access);
+		}
+		for (Access access: accesses) {
+			snapshot.addAccess(access);
+		}
+		
+		return new Scenario.FromDomainBuilder(snapshot)
 				.cellDimension(cellDimension)
-				.floorField(floorField)
+				.floorField(field)
 				.build();
-
-		// create automaton for all simulations
+	}
+	
+	
+	/**
+	 * Creates a cellular automaton for a given scenario
+	 * @param scenario the scenario in which the simulation takes place
+	 * @return a cellular automaton configured with the simulation parameters
+	 */
+	private CellularAutomaton createAutomaton(Scenario scenario) {
+		return createAutomaton(scenario, timeLimit);
+	}
+	
+	
+	/**
+	 * Creates a cellular automaton for a given scenario, with a given time limit
+	 * @param scenario the scenario in which the simulation takes place
+	 * @param limit time limit for simulation (in seconds)
+	 * @return a cellular automaton configured with the simulation parameters
+	 */
+	private CellularAutomaton createAutomaton(Scenario scenario, double limit) {
 		var cellularAutomatonParameters =
 				new CellularAutomatonParameters.Builder()
 						.scenario(scenario) // use this scenario
-						.timeLimit(timeLimit) // time limit for simulation (in seconds)
+						.timeLimit(limit) // time limit for simulation (in seconds)
 						.neighbourhood(neighbourhood) // use this neighborhood for automaton
 						.pedestrianReferenceVelocity(pedestrianReferenceVelocity) // fastest pedestrian speed
 						.build();
 
-		var automaton = new CellularAutomaton(cellularAutomatonParameters);
-		// set a seed dependent on the solution for reproducibility
-		// es.uma.lcc.caesium.statistics.Random.random.setSeed(accesses.hashCode());
-		// run numSimulations independent simulations
-		for(int i = 0; i < simulations; i++) {
-			es.uma.lcc.caesium.statistics.Random.random.setSeed(i);
-			// reset automaton for this simulation
-			automaton.reset();
-
-			// place pedestrians for this simulation
+		return new CellularAutomaton(cellularAutomatonParameters);
+	}
+	
+	
+	/**
+	 * Runs a single simulation (replica) on an automaton. The outcome of the 
+	 * simulation only depends on the replica index (and the solution key), so 
+	 * replicas can be run in any order and on any automaton built for the same scenario.
+	 * If replicas do not depend on the solution, the crowd is replayed from the crowd 
+	 * bank, so every layout is simulated with the same crowds (common random numbers).
+	 * Every random value of the replica comes from its stream: the crowd is sampled 
+	 * from it, and the placement of pedestrians and the decisions of the automaton 
+	 * (which the simulator draws from the global generator) are run under 
+	 * {@link ReplicaRandom#withGlobalGenerator} with a seed taken from it.
+	 * @param automaton the automaton used for the simulation
+	 * @param replica the index of the replica
+	 * @param solutionKey the key of the solution (0 if replicas do not depend on the solution)
+	 * @return a summary of the simulation
+	 */
+	private SimulationSummary simulate(CellularAutomaton automaton, int replica, long solutionKey) {
+		if (solutionKey == 0L) {
+			// replay the crowd of the replica from the bank
+			CrowdBank.Crowds crowds = crowdBank.covering(replica);
+			double[] parameters = crowds.parameters;
+			int[] next = {CrowdBank.PARAMETERS * crowds.offsets[replica]};
+			Supplier<PedestrianParameters> pedestrianParametersSupplier = () -> {
+				int k = next[0];
+				next[0] += CrowdBank.PARAMETERS;
+				return new PedestrianParameters.Builder()
+						.fieldAttractionBias(parameters[k])
+						.crowdRepulsion(parameters[k + 1])
+						.velocityPercent(parameters[k + 2])
+						.build();
+			};
+			return ReplicaRandom.withGlobalGenerator(crowds.seeds[replica], 
+					() -> simulate(automaton, crowds.numPedestrians(replica), pedestrianParametersSupplier));
+		}
+		else {
+			// same order of draws as in the crowd bank
+			SplittableRandom rng = ReplicaRandom.stream(seed, replica, solutionKey);
+			long globalSeed = rng.nextLong();
+			var numberOfPedestrians = rng.nextInt(numPedestriansMin, numPedestriansMax + 1);
 			Supplier<PedestrianParameters> pedestrianParametersSupplier = () ->
 					new PedestrianParameters.Builder()
-							.fieldAttractionBias(sample(attractionBiasMin, attractionBiasMax))
-							.crowdRepulsion(sample(crowdRepulsionMin, crowdRepulsionMax))
-							.velocityPercent(sample(velocityFactorMin, velocityFactorMax))
+							.fieldAttractionBias(sample(rng, attractionBiasMin, attractionBiasMax))
+							.crowdRepulsion(sample(rng, crowdRepulsionMin, crowdRepulsionMax))
+							.velocityPercent(sample(rng, velocityFactorMin, velocityFactorMax))
 							.build();
+			return ReplicaRandom.withGlobalGenerator(globalSeed, 
+					() -> simulate(automaton, numberOfPedestrians, pedestrianParametersSupplier));
+		}
+	}
+	
+	
+	/**
+	 * Runs a single simulation on an automaton with a given crowd
+	 * @param automaton the automaton used for the simulation
+	 * @param numberOfPedestrians the number of pedestrians
+	 * @param pedestrianParametersSupplier supplier of the parameters of each pedestrian
+	 * @return a summary of the simulation
+	 */
+	private static SimulationSummary simulate(CellularAutomaton automaton, int numberOfPedestrians, 
+			Supplier<PedestrianParameters> pedestrianParametersSupplier) {
+		// reset automaton for this simulation
+		automaton.reset();
 
-			var numberOfPedestrians = random.nextInt(numPedestriansMin, numPedestriansMax + 1);
-			automaton.addPedestriansUniformly(numberOfPedestrians, pedestrianParametersSupplier);
+		// place pedestrians for this simulation
+		automaton.addPedestriansUniformly(numberOfPedestrians, pedestrianParametersSupplier);
 
-			// run the simulation
-			automaton.run();
+		// run the simulation
+		automaton.run();
 
-			// gather metrics after this simulation
-			double f = automaton.numberOfNonEvacuees();
-			double curMinDist = 0.0;
-			double curMeanDist = 0.0;
-			double curMaxTime = 0.0;
-			double curMeanTime = 0.0;
-			if (f > 0) {
-				var distances = automaton.distancesToClosestExit();
-				curMinDist = minimum(distances);
-				curMeanDist = mean(distances);
-			}
-			else {
-				var times = automaton.evacuationTimes();
-				curMaxTime = maximum(times);
-				curMeanTime = mean(times);
-			}
-			// add simulation results
-			summaries.add(new SimulationSummary(f, curMinDist, curMeanDist, curMaxTime, curMeanTime));
+		// gather metrics after this simulation
+		double f = automaton.numberOfNonEvacuees();
+		double curMinDist = 0.0;
+		double curMeanDist = 0.0;
+		double curMaxTime = 0.0;
+		double curMeanTime = 0.0;
+		if (f > 0) {
+			var distances = automaton.distancesToClosestExit();
+			curMinDist = minimum(distances);
+			curMeanDist = mean(distances);
 		}
-
-		domainAccesses.clear();
-		domainAccesses.addAll(fixedAccesses);
-		
-		return summaries;
+		else {
+			var times = automaton.evacuationTimes();
+			curMaxTime = maximum(times);
+			curMeanTime = mean(times);
+		}
+		return new SimulationSummary(f, curMinDist, curMeanDist, curMaxTime, curMeanTime);
 	}
 	
 	
 	/**
 	 * Samples a double value from an interval [l, u)
+	 * @param rng the random generator
 	 * @param l lower end
 	 * @param u upper end
 	 * @return a double in range [l, u). If l == u, l is returned.
 	 */
-	private double sample (double l, double u) {
+	static double sample (SplittableRandom rng, double l, double u) {
 		if (l == u)
 			return l;
 		else
-			return random.nextDouble(l, u);
+			return rng.nextDouble(l, u);
 	}
 
+	/**
+	 * Evaluates a solution given by the list of exits to be added to the environment.
+	 * If adaptive evaluation is configured, it starts with the minimum number of 
+	 * simulations and adds more (up to the number of simulations of the configuration) 
+	 * while the standard error of the mean fitness exceeds the tolerance. Otherwise, 
+	 * the number of simulations indicated by the configuration is used. 
+	 * <p>
+	 * If coarse fidelity tiers are configured (a coarser grid, fewer replicas and/or 
+	 * a shorter time limit), the solution is first evaluated in the coarsest tier, and 
+	 * it is only promoted to the next one (up to the full-fidelity evaluation) if its 
+	 * fitness is within the margin of the tier from the best fitness found in the tier 
+	 * so far. A solution screened out gets a censored evaluation whose fitness is an 
+	 * estimate: its fitness in the last tier reached, corrected by the mean difference 
+	 * between the fitness of promoted solutions in consecutive tiers.
+	 * @param accesses list of exits to be added to the environment
+	 * @return the fitness of the solution and the number of simulations performed
+	 */
+	public FitnessEvaluation evaluate (List<Access> accesses) {
+		return evaluate(accesses, Double.POSITIVE_INFINITY);
+	}
+	
+	
+	/**
+	 * Evaluates a solution given by the list of exits to be added to the environment, 
+	 * at full fidelity (i.e., with the configured simulation parameters).
+	 * @param accesses list of exits to be added to the environment
+	 * @return the fitness of the solution and the number of simulations performed
+	 */
+	private FitnessEvaluation evaluateFull (List<Access> accesses) {
+		List<SimulationSummary> summaries;
+		if ((minSimulations <= 0) || (minSimulations >= numSimulations)) {
+			summaries = simulate(accesses);
+		}
+		else {
+			summaries = new ArrayList<SimulationSummary>(numSimulations);
+			summaries.addAll(simulate(accesses, 0, minSimulations));
+			while ((summaries.size() < numSimulations) && (standardError(summaries) > tolerance)) {
+				int count = Math.min(numThreads, numSimulations - summaries.size());
+				summaries.addAll(simulate(accesses, summaries.size(), count));
+			}
+		}
+		evaluations.increment();
+		evaluationSimulations.add(summaries.size());
+		return new FitnessEvaluation(fitness(summaries), summaries.size());
+	}
+	
+	
+	/**
+	 * Evaluates a solution given by the list of exits to be added to the environment, 
+	 * stopping as soon as its fitness is known to be worse than a cutoff value (e.g., 
+	 * the fitness of the incumbent solution). Replicas are run in rounds of as many 
+	 * replicas as threads. The fitness of a simulation is non-negative, so the sum of 
+	 * the fitness of the replicas run so far divided by the number of simulations of 
+	 * the configuration is a lower bound of the mean fitness, and the evaluation stops 
+	 * once this bound exceeds the cutoff. Moreover, once the remaining margin is below 1 
+	 * (the fitness of a simulation with non-evacuees), replicas are run with the time limit 
+	 * shortened to the margin times the time limit: if there are still pedestrians in the 
+	 * environment when it is reached, the fitness of the replica exceeds the margin 
+	 * whatever happens afterwards, and so does the mean fitness with respect to the cutoff. 
+	 * In both cases the evaluation is censored and the fitness reported is the lower 
+	 * bound; otherwise, the result is the same as that of {@link #evaluate(List)}. 
+	 * Replicas go through the persistent store and the worker processes as in a complete 
+	 * evaluation, but those run with a shortened time limit are not added to the store. 
+	 * If coarse fidelity tiers are configured, the solution is screened first, and 
+	 * it is also censored if it is not promoted to full fidelity.
+	 * @param accesses list of exits to be added to the environment
+	 * @param cutoff the cutoff value (infinite for a complete evaluation)
+	 * @return the fitness of the solution (or a lower bound if censored) and the number of simulations performed
+	 */
+	public FitnessEvaluation evaluate (List<Access> accesses, double cutoff) {
+		List<FidelityTier> tiers = fidelityTiers();
+		if (tiers.isEmpty())
+			return evaluateFull(accesses, cutoff);
+		Screening screening = screen(accesses, tiers);
+		if (screening.passed() < tiers.size())
+			return screening.estimate(tiers);
+		FitnessEvaluation result = evaluateFull(accesses, cutoff);
+		if (!result.censored())
+			tiers.get(tiers.size() - 1).observe(result.fitness() - screening.values()[tiers.size() - 1]);
+		return result;
+	}
+	
+	
+	/**
+	 * Evaluates a solution at full fidelity, stopping as soon as its fitness is known 
+	 * to be worse than a cutoff value (see {@link #evaluate(List, double)}).
+	 * @param accesses list of exits to be added to the environment
+	 * @param cutoff the cutoff value (infinite for a complete evaluation)
+	 * @return the fitness of the solution (or a lower bound if censored) and the number of simulations performed
+	 */
+	private FitnessEvaluation evaluateFull (List<Access> accesses, double cutoff) {
+		if (cutoff == Double.POSITIVE_INFINITY)
+			return evaluateFull(accesses);
+		boolean adaptive = (minSimulations > 0) && (minSimulations < numSimulations);
+		double budget = cutoff * numSimulations;
+		List<SimulationSummary> summaries = new ArrayList<SimulationSummary>(numSimulations);
+		double sum = 0.0;
+		boolean censored = false;
+		while (!censored && (summaries.size() < numSimulations)) {
+			int first = summaries.size();
+			if (adaptive && (first >= minSimulations) && (standardError(summaries) <= tolerance))
+				break;
+			int count = Math.min(numThreads, (adaptive && (first < minSimulations) ? minSimulations : numSimulations) - first);
+			double margin = budget - sum;
+			if (margin >= 1.0) {
+				for (SimulationSummary summary: simulate(accesses, first, count)) {
+					summaries.add(summary);
+					sum += fitness(summary);
+				}
+			}
+			else {
+				// a replica not finished within the shortened time limit has fitness above the margin
+				margin = Math.max(0.0, margin);
+				for (SimulationSummary summary: simulate(accesses, first, count, 0L, margin * timeLimit)) {
+					summaries.add(summary);
+					if (summary.nonEvacuees() > 0) {
+						censored = true;
+						sum += margin;
+					}
+					else {
+						sum += fitness(summary);
+					}
+				}
+			}
+			censored |= sum > budget;
+		}
+		evaluations.increment();
+		evaluationSimulations.add(summaries.size());
+		if (censored)
+			return new FitnessEvaluation(sum / numSimulations, summaries.size(), true);
+		return new FitnessEvaluation(fitness(summaries), summaries.size());
+	}
+	
+	
+	/**
+	 * Returns the coarse fidelity tiers of the configuration, creating them the first 
+	 * time they are required
+	 * @return the coarse fidelity tiers (from coarsest to finest; empty if none is configured)
+	 */
+	private List<FidelityTier> fidelityTiers() {
+		List<FidelityTier> tiers = fidelityTiers;
+		if (tiers == null) {
+			synchronized (this) {
+				tiers = fidelityTiers;
+				if (tiers == null) {
+					int numTiers = simulationConf.getInt("fidelity/tiers");
+					List<FidelityTier> list = new ArrayList<FidelityTier>(numTiers);
+					Map<Double, ExitEvacuationProblem> grids = new HashMap<Double, ExitEvacuationProblem>();
+					for (int k = 0; k < numTiers; k++) {
+						String prefix = "fidelity/" + k + "/";
+						double cells = simulationConf.getDouble(prefix + "cellDimension");
+						ExitEvacuationProblem problem = (cells == cellDimension) ? this : grids.computeIfAbsent(cells, this::coarseGrid);
+						list.add(new FidelityTier(problem, simulationConf.getInt(prefix + "numSimulations"), 
+								simulationConf.getDouble(prefix + "timeLimit"), simulationConf.getDouble(prefix + "margin")));
+					}
+					tiers = List.copyOf(list);
+					fidelityTiers = tiers;
+				}
+			}
+		}
+		return tiers;
+	}
+	
+	
+	/**
+	 * Creates the evaluation problem of the tiers with a coarser grid: a copy of this 
+	 * problem with another cell dimension, which shares the pool of threads and the 
+	 * worker processes of this problem (its scenarios, distance maps and stored 
+	 * simulations are those of its own grid).
+	 * @param cells the cell dimension of the grid
+	 * @return the evaluation problem on the grid
+	 */
+	private ExitEvacuationProblem coarseGrid(double cells) {
+		SimulationConfiguration conf = new SimulationConfiguration();
+		for (var entry: simulationConf.getParameters().entrySet()) {
+			conf.putValue(entry.getKey(), entry.getValue());
+		}
+		conf.putValue("cellularAutomatonParameters/cellDimension", Double.toString(cells));
+		conf.putValue("fidelity/tiers", "0");
+		return new ExitEvacuationProblem(environment, numExits, exitWidth, conf, this);
+	}
+	
+	
+	/**
+	 * Evaluates a solution in a coarse fidelity tier, running the first replicas of 
+	 * the tier with its time limit on the grid of the tier. Replicas go through the 
+	 * scenario cache, the persistent store and the worker processes as in a 
+	 * full-fidelity evaluation (see {@link #simulate(List, int, int, long, double)}), 
+	 * but they do not count as evaluations of the problem.
+	 * @param accesses list of exits to be added to the environment
+	 * @param tier the coarse fidelity tier
+	 * @return the fitness of the solution in the tier and the number of simulations performed
+	 */
+	private FitnessEvaluation evaluate (List<Access> accesses, FidelityTier tier) {
+		List<SimulationSummary> summaries = tier.problem.simulate(accesses, 0, tier.numSimulations, 0L, tier.timeLimit);
+		double[] fitnesses = new double[summaries.size()];
+		int i = 0;
+		for (SimulationSummary s: summaries) {
+			fitnesses[i++] = tier.problem.fitness(s, tier.timeLimit);
+		}
+		return new FitnessEvaluation(Descriptive.mean(fitnesses), summaries.size());
+	}
+	
+	
+	/**
+	 * Screens a solution through the coarse fidelity tiers. The solution is evaluated 
+	 * in each tier, and it is promoted to the next tier if its fitness is within the 
+	 * margin of the tier from the best fitness found in the tier so far.
+	 * @param accesses list of exits to be added to the environment
+	 * @param tiers the coarse fidelity tiers
+	 * @return the outcome of the screening
+	 */
+	private Screening screen(List<Access> accesses, List<FidelityTier> tiers) {
+		double[] values = new double[tiers.size()];
+		int passed = 0;
+		int simulations = 0;
+		for (int k = 0; k < tiers.size(); k++) {
+			FidelityTier tier = tiers.get(k);
+			FitnessEvaluation result = evaluate(accesses, tier);
+			values[k] = result.fitness();
+			simulations += result.simulations();
+			tier.best.accumulate(values[k]);
+			if (k > 0)
+				tiers.get(k - 1).observe(values[k] - values[k - 1]);
+			tier.evaluated.increment();
+			if (values[k] > tier.best.get() + tier.margin)
+				break;
+			tier.promoted.increment();
+			passed = k + 1;
+		}
+		return new Screening(values, passed, simulations);
+	}
+	
+	
+	/**
+	 * Returns a report of the number of solutions evaluated and promoted in each 
+	 * coarse fidelity tier
+	 * @return a report of the screening (empty if no coarse fidelity tier is configured)
+	 */
+	public String getFidelityReport() {
+		List<FidelityTier> tiers = fidelityTiers();
+		StringBuilder str = new StringBuilder();
+		for (int k = 0; k < tiers.size(); k++) {
+			FidelityTier tier = tiers.get(k);
+			long evaluated = tier.evaluated.sum();
+			long promoted = tier.promoted.sum();
+			str.append(String.format("Fidelity tier %d (%.2f m cells, %d simulations, %.1f s): %d evaluated, %d promoted (%.1f%%), mean difference with next tier %.4f%n", 
+					k, tier.problem.cellDimension, tier.numSimulations, tier.timeLimit, evaluated, promoted, 
+					(evaluated == 0) ? 0.0 : 100.0 * promoted / evaluated, tier.meanDifference()));
+		}
+		return str.toString();
+	}
+	
+	
+	/**
+	 * Sets the precomputed fitness landscape of single-exit layouts, which can be 
+	 * used by algorithms instead of simulating such layouts
+	 * @param landscape the landscape (null if not available)
+	 */
+	public void setSingleExitLandscape(SingleExitLandscape landscape) {
+		singleExitLandscape = landscape;
+	}
+	
+	
+	/**
+	 * Returns the precomputed fitness landscape of single-exit layouts
+	 * @return the landscape (null if not available)
+	 */
+	public SingleExitLandscape getSingleExitLandscape() {
+		return singleExitLandscape;
+	}
+	
+	
+	/**
+	 * Returns the number of evaluations performed so far
+	 * @return the number of evaluations performed so far
+	 */
+	public long getEvaluations() {
+		return evaluations.sum();
+	}
+	
+	
+	/**
+	 * Returns the number of simulations performed so far in evaluations
+	 * (which may be less than the number of evaluations times the number 
+	 * of simulations if adaptive evaluation is used)
+	 * @return the number of simulations performed so far in evaluations
+	 */
+	public long getEvaluationSimulations() {
+		return evaluationSimulations.sum();
+	}
+	
+	
+	/**
+	 * Computes the standard error of the mean fitness of a collection of simulation results
+	 * @param summaries collection of summaries of the simulation results
+	 * @return the standard error of the mean fitness
+	 */
+	private double standardError(Collection<SimulationSummary> summaries) {
+		int n = summaries.size();
+		if (n < 2)
+			return Double.POSITIVE_INFINITY;
+		double[] fitnesses = new double[n];
+		int i = 0;
+		for (SimulationSummary s: summaries) {
+			fitnesses[i++] = fitness(s);
+		}
+		double mean = Descriptive.mean(fitnesses);
+		double ss = 0.0;
+		for (double f: fitnesses) {
+			ss += (f - mean) * (f - mean);
+		}
+		return Math.sqrt(ss / (n - 1) / n);
+	}
+	
+	
 	/**
 	 * Computes fitness given the results of the simulation(s)
 	 * @param summary summary of the simulation results
 	 * @return a numeric value (to be minimized) representing the goodness of the simulation results.
 	 */
 	public double fitness(SimulationSummary summary) {
+		return fitness(summary, timeLimit);
+	}
+	
+	
+	/**
+	 * Computes fitness given the results of a simulation run with a given time limit
+	 * @param summary summary of the simulation results
+	 * @param limit the time limit of the simulation (in seconds)
+	 * @return a numeric value (to be minimized) representing the goodness of the simulation results.
+	 */
+	private double fitness(SimulationSummary summary, double limit) {
 		double f = summary.nonEvacuees();
 		if (f > 0) {
 			f += summary.minDistance() / diameter + summary.meanDistance() / diameter2;
 		} else {
-			f += summary.maxTime() / timeLimit + summary.meanTime() / timeLimit2;
+			f += summary.maxTime() / limit + summary.meanTime() / (limit == timeLimit ? timeLimit2 : limit * limit);
 		}
 		return f;
 	}
@@ -371,6 +1400,107 @@ public class ExitEvacuationProblem {
 		return Descriptive.mean(fitnesses);
 	}
 	
+	/**
+	 * A coarse fidelity tier: a cheaper evaluation (a coarser grid, fewer replicas 
+	 * and/or a shorter time limit) used to screen solutions, with its promotion statistics.
+	 */
+	private static final class FidelityTier {
+		/**
+		 * the evaluation problem of the grid of the tier (the full-fidelity problem if it has the same grid)
+		 */
+		private final ExitEvacuationProblem problem;
+		/**
+		 * number of replicas run in the tier
+		 */
+		private final int numSimulations;
+		/**
+		 * time limit of the simulations of the tier (in seconds)
+		 */
+		private final double timeLimit;
+		/**
+		 * maximum difference with the best fitness of the tier for a solution to be promoted
+		 */
+		private final double margin;
+		/**
+		 * best fitness found in the tier so far
+		 */
+		private final DoubleAccumulator best = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+		/**
+		 * number of solutions evaluated in the tier
+		 */
+		private final LongAdder evaluated = new LongAdder();
+		/**
+		 * number of solutions promoted to the next tier
+		 */
+		private final LongAdder promoted = new LongAdder();
+		/**
+		 * sum of the differences between the fitness of promoted solutions in the next tier and in this one
+		 */
+		private final DoubleAdder differences = new DoubleAdder();
+		/**
+		 * number of differences observed
+		 */
+		private final LongAdder observed = new LongAdder();
+		
+		/**
+		 * Creates a tier
+		 * @param problem the evaluation problem of the grid of the tier
+		 * @param numSimulations number of replicas run in the tier
+		 * @param timeLimit time limit of the simulations of the tier (in seconds)
+		 * @param margin maximum difference with the best fitness of the tier for a solution to be promoted
+		 */
+		private FidelityTier(ExitEvacuationProblem problem, int numSimulations, double timeLimit, double margin) {
+			this.problem = problem;
+			this.numSimulations = numSimulations;
+			this.timeLimit = timeLimit;
+			this.margin = margin;
+		}
+		
+		/**
+		 * Records the difference between the fitness of a promoted solution in the next tier and in this one
+		 * @param difference the difference
+		 */
+		private void observe(double difference) {
+			differences.add(difference);
+			observed.increment();
+		}
+		
+		/**
+		 * Returns the mean difference between the fitness of promoted solutions in the next tier and in this one
+		 * @return the mean difference (0 if none has been observed yet)
+		 */
+		private double meanDifference() {
+			long n = observed.sum();
+			return (n == 0) ? 0.0 : differences.sum() / n;
+		}
+	}
+	
+	
+	/**
+	 * Outcome of the screening of a solution through the coarse fidelity tiers
+	 * @param values the fitness of the solution in each tier it reached
+	 * @param passed the number of tiers passed by the solution (all of them if promoted to full fidelity)
+	 * @param simulations the number of (coarse) simulations performed
+	 */
+	private record Screening(double[] values, int passed, int simulations) {
+		
+		/**
+		 * Returns the estimated evaluation of a solution screened out: its fitness in the
+		 * last tier reached, corrected by the mean differences between that tier and the
+		 * following ones (including full fidelity)
+		 * @param tiers the coarse fidelity tiers
+		 * @return the (censored) evaluation of the solution
+		 */
+		private FitnessEvaluation estimate(List<FidelityTier> tiers) {
+			double fitness = values[passed];
+			for (int k = passed; k < tiers.size(); k++) {
+				fitness += tiers.get(k).meanDifference();
+			}
+			return new FitnessEvaluation(fitness, simulations, true);
+		}
+	}
+	
+	
 	@Override
 	public String toString() {
 		return "================================================\nEvacuation Problem\n================================================"
@@ -0,0 +1,142 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
+
+/**
+ * Compact key representing a set of exits, irrespective of the order in which 
+ * they are given. Exits are represented either by the bounds of their shapes, 
+ * rounded off to a fixed precision and packed into primitive values, or by the
+ * cells of the automaton they occupy. Keys of both kinds are not meant to be 
+ * mixed in the same collection.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public final class ExitLayoutKey {
+	/**
+	 * precision (in meters) of the coordinates used in the key
+	 */
+	private static final double PRECISION = 0.01;
+	/**
+	 * packed representation of the exits (sorted)
+	 */
+	private final long[] values;
+	/**
+	 * hash code (precomputed)
+	 */
+	private final int hash;
+	
+	/**
+	 * Creates a key from its packed representation
+	 * @param values the packed representation (already sorted)
+	 */
+	private ExitLayoutKey(long[] values) {
+		this.values = values;
+		hash = Arrays.hashCode(values);
+	}
+	
+	/**
+	 * Returns the key of a collection of exits
+	 * @param accesses the exits
+	 * @return the key of the set of exits
+	 */
+	public static ExitLayoutKey of(List<Access> accesses) {
+		long[][] rectangles = new long[accesses.size()][];
+		int i = 0;
+		for (Access access: accesses) {
+			Rectangle2D r = access.getShape().getAWTShape().getBounds2D();
+			rectangles[i++] = new long[] {pack(r.getX(), r.getY()), pack(r.getWidth(), r.getHeight())};
+		}
+		Arrays.sort(rectangles, (a, b) -> (a[0] != b[0]) ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+		long[] values = new long[2 * rectangles.length];
+		for (i = 0; i < rectangles.length; i++) {
+			values[2 * i] = rectangles[i][0];
+			values[2 * i + 1] = rectangles[i][1];
+		}
+		return new ExitLayoutKey(values);
+	}
+	
+	/**
+	 * Returns the key of a collection of exits given by the cells of the automaton 
+	 * they occupy (row * columns + column). Exits may overlap, so repeated cells 
+	 * are only kept once.
+	 * @param cells the cells occupied by the exits (the array is sorted in place)
+	 * @return the key of the set of exits
+	 */
+	public static ExitLayoutKey ofCells(long[] cells) {
+		Arrays.sort(cells);
+		int distinct = 0;
+		for (int i = 0; i < cells.length; i++) {
+			if ((i == 0) || (cells[i] != cells[i - 1]))
+				cells[distinct++] = cells[i];
+		}
+		return new ExitLayoutKey((distinct == cells.length) ? cells : Arrays.copyOf(cells, distinct));
+	}
+	
+	/**
+	 * Packs two coordinates (rounded off to the precision of the key) into a long
+	 * @param x first coordinate
+	 * @param y second coordinate
+	 * @return the packed coordinates
+	 */
+	private static long pack(double x, double y) {
+		return (((long) round(x)) << 32) | (round(y) & 0xffffffffL);
+	}
+	
+	/**
+	 * Rounds off a coordinate to the precision of the key
+	 * @param x the coordinate
+	 * @return the coordinate in units of the precision
+	 */
+	private static int round(double x) {
+		return (int) Math.round(x / PRECISION);
+	}
+	
+	/**
+	 * Returns a key from its packed representation (as returned by {@link #toArray})
+	 * @param values the packed representation
+	 * @return the key
+	 */
+	static ExitLayoutKey fromArray(long[] values) {
+		return new ExitLayoutKey(values.clone());
+	}
+	
+	/**
+	 * Returns the packed representation of the key
+	 * @return a copy of the packed representation of the key
+	 */
+	long[] toArray() {
+		return values.clone();
+	}
+	
+	/**
+	 * Returns the number of primitive values in the key 
+	 * @return the number of primitive values in the key
+	 */
+	public int length() {
+		return values.length;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ExitLayoutKey))
+			return false;
+		ExitLayoutKey other = (ExitLayoutKey) obj;
+		return (hash == other.hash) && Arrays.equals(values, other.values);
+	}
+	
+	@Override
+	public String toString() {
+		return Arrays.toString(values);
+	}
+}
@@ -0,0 +1,23 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+/**
+ * Record with the outcome of the evaluation of a solution
+ * 
+ * @param fitness the fitness of the solution (to be minimized)
+ * @param simulations the number of simulations actually performed to compute the fitness
+ * @param censored whether the evaluation was stopped before completion because the solution 
+ * was not competitive: either it was known to be worse than a cutoff value (the fitness is then 
+ * a lower bound of the actual fitness) or it was screened out in a coarse fidelity tier (the 
+ * fitness is then an estimate)
+ */
+public record FitnessEvaluation(double fitness, int simulations, boolean censored) {
+
+	/**
+	 * Creates the outcome of a complete (not censored) evaluation
+	 * @param fitness the fitness of the solution (to be minimized)
+	 * @param simulations the number of simulations actually performed to compute the fitness
+	 */
+	public FitnessEvaluation(double fitness, int simulations) {
+		this(fitness, simulations, false);
+	}
+}
@@ -0,0 +1,81 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.cellular.automaton.automata.floorField.FloorField;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
+
+/**
+ * Builds static floor fields incrementally. The distance map of each individual 
+ * exit is computed once (with the base floor field over the same obstacle grid) 
+ * and cached, and the field of any set of exits is assembled as the pointwise 
+ * minimum of the maps of its exits. This is only exact if the base floor field
+ * holds raw distances to the closest exit, which is checked when the problem is
+ * created (see {@link ExitEvacuationProblem#isComposedFloorFieldExact()}).
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class FloorFieldComposer {
+	/**
+	 * computes the static floor field of the domain with a single exit
+	 */
+	private final Function<Access, FloorField> singleExitField;
+	/**
+	 * distance maps of individual exits
+	 */
+	private final BoundedCache<ExitLayoutKey, DistanceMap> maps;
+	
+	/**
+	 * Distance map of an individual exit
+	 * @param rows number of rows of the grid
+	 * @param columns number of columns of the grid
+	 * @param values distances (row-major order)
+	 */
+	private record DistanceMap(int rows, int columns, double[] values) {}
+	
+	/**
+	 * Creates the composer
+	 * @param singleExitField function computing the static floor field of the domain with a single exit
+	 * @param maxEntries maximum number of distance maps kept
+	 * @param maxBytes maximum memory (in bytes) devoted to distance maps
+	 */
+	public FloorFieldComposer(Function<Access, FloorField> singleExitField, int maxEntries, long maxBytes) {
+		this.singleExitField = singleExitField;
+		maps = new BoundedCache<ExitLayoutKey, DistanceMap>(maxEntries, maxBytes, m -> (long) Double.BYTES * m.values().length);
+	}
+	
+	/**
+	 * Returns the static floor field of the domain with a collection of exits
+	 * @param accesses the exits (at least one)
+	 * @return the static floor field
+	 */
+	public ComposedStaticFloorField compose(List<Access> accesses) {
+		List<double[]> fields = new ArrayList<double[]>(accesses.size());
+		DistanceMap map = null;
+		for (Access access: accesses) {
+			map = maps.computeIfAbsent(ExitLayoutKey.of(List.of(access)), key -> distanceMap(access));
+			fields.add(map.values());
+		}
+		return ComposedStaticFloorField.of(map.rows(), map.columns(), fields);
+	}
+	
+	/**
+	 * Computes the distance map of an individual exit
+	 * @param access the exit
+	 * @return the distance map
+	 */
+	private DistanceMap distanceMap(Access access) {
+		FloorField field = singleExitField.apply(access);
+		return new DistanceMap(field.getRows(), field.getColumns(), ComposedStaticFloorField.toArray(field));
+	}
+	
+	/**
+	 * Returns the cache of distance maps
+	 * @return the cache of distance maps
+	 */
+	public BoundedCache<ExitLayoutKey, ?> getCache() {
+		return maps;
+	}
+}
@@ -0,0 +1,148 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Index of the discretized positions along the perimeter of the environment. Exit
+ * locations are rounded off to a fixed precision, so there is a finite number of
+ * possible exits, and each of them is mapped onto a fixed set of segments (one per
+ * side it spans, i.e., split at corners) and a fixed set of cells of the automaton.
+ * Both are computed the first time a position is used and then reused. Since the
+ * scenario of a simulation only depends on the cells occupied by exits (the problem
+ * places exits on the cells given by the same rasterizer), solutions whose exits 
+ * cover the same cells can share simulation results, and the key provided by 
+ * {@link #key} identifies them.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class PerimeterCellIndex {
+	/**
+	 * precision of the locations of exits
+	 */
+	private final double precision;
+	/**
+	 * number of discretized positions along the perimeter
+	 */
+	private final int numPositions;
+	/**
+	 * decoder of exit locations
+	 */
+	private final Double2AccessDecoder decoder;
+	/**
+	 * function returning the cells occupied by an exit given its segments
+	 */
+	private final Function<double[], int[]> rasterizer;
+	/**
+	 * segments of the exit at each position (4 values per segment: left, bottom, width, height)
+	 */
+	private final AtomicReferenceArray<double[]> segments;
+	/**
+	 * sorted cells (row * columns + column) of the exit at each position
+	 */
+	private final AtomicReferenceArray<int[]> cells;
+
+
+	/**
+	 * Creates the index
+	 * @param decoder decoder of exit locations
+	 * @param perimeterLength length of the perimeter
+	 * @param precision precision of the locations of exits
+	 * @param rasterizer function returning the (sorted) cells occupied by an exit given its segments
+	 */
+	public PerimeterCellIndex(Double2AccessDecoder decoder, double perimeterLength, double precision, Function<double[], int[]> rasterizer) {
+		this.decoder = decoder;
+		this.precision = precision;
+		this.rasterizer = rasterizer;
+		numPositions = (int) Math.round(perimeterLength / precision);
+		segments = new AtomicReferenceArray<double[]>(numPositions);
+		cells = new AtomicReferenceArray<int[]>(numPositions);
+	}
+
+
+	/**
+	 * Returns the number of discretized positions along the perimeter
+	 * @return the number of discretized positions along the perimeter
+	 */
+	public int getNumPositions() {
+		return numPositions;
+	}
+
+
+	/**
+	 * Returns the discretized position of a location along the perimeter
+	 * @param location a location along the perimeter (in meters)
+	 * @return the discretized position
+	 */
+	public int position(double location) {
+		return (int) Math.floorMod(Math.round(location / precision), (long) numPositions);
+	}
+
+
+	/**
+	 * Returns the segments of the exit at a position (split at the corners)
+	 * @param position a discretized position
+	 * @return the segments of the exit (4 values per segment: left, bottom, width, height); must not be modified
+	 */
+	public double[] segments(int position) {
+		double[] s = segments.get(position);
+		if (s == null) {
+			double[] buffer = new double[4 * decoder.getMaxSegments()];
+			int n = decoder.locationToSegments(position * precision, buffer, 0);
+			s = Arrays.copyOf(buffer, 4 * n);
+			segments.compareAndSet(position, null, s);
+		}
+		return s;
+	}
+
+
+	/**
+	 * Returns the cells of the automaton occupied by the exit at a position
+	 * @param position a discretized position
+	 * @return the sorted cells (row * columns + column) of the exit; must not be modified
+	 */
+	public int[] cells(int position) {
+		int[] c = cells.get(position);
+		if (c == null) {
+			c = rasterizer.apply(segments(position));
+			cells.compareAndSet(position, null, c);
+		}
+		return c;
+	}
+
+
+	/**
+	 * Indicates whether an exit at a given location occupies the same cells as the
+	 * exit at a discretized position (and hence leads to the same scenario)
+	 * @param location a location along the perimeter (in meters)
+	 * @param position a discretized position
+	 * @return true if both exits occupy the same cells, false otherwise
+	 */
+	public boolean sameCells(double location, int position) {
+		double[] buffer = new double[4 * decoder.getMaxSegments()];
+		int n = decoder.locationToSegments(location, buffer, 0);
+		return Arrays.equals(rasterizer.apply(Arrays.copyOf(buffer, 4 * n)), cells(position));
+	}
+
+
+	/**
+	 * Returns a key identifying the cells occupied by a set of exits
+	 * @param positions the discretized positions of the exits
+	 * @return the key of the set of cells occupied by the exits
+	 */
+	public ExitLayoutKey key(int[] positions) {
+		int total = 0;
+		for (int p: positions) {
+			total += cells(p).length;
+		}
+		long[] all = new long[total];
+		int k = 0;
+		for (int p: positions) {
+			for (int cell: cells(p)) {
+				all[k++] = cell;
+			}
+		}
+		return ExitLayoutKey.ofCells(all);
+	}
+}
@@ -0,0 +1,77 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+/**
+ * Deterministic random streams for simulation replicas. Each stream is fully
+ * determined by a base seed, the index of the replica and an (optional) key of 
+ * the solution being simulated, so replicas can be run in any order and by 
+ * any thread while producing the same results. The simulator places pedestrians 
+ * and makes its decisions with the global generator of the statistics library (its
+ * automaton cannot be given a generator of its own), so that part of a replica is
+ * run under {@link #withGlobalGenerator}, seeded from the stream of the replica.
+ * As a consequence, the replicas simulated in a JVM run one at a time, and
+ * simulations only run in parallel on worker processes (see {@link SimulationWorker}).
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public final class ReplicaRandom {
+	/**
+	 * odd constant used to spread consecutive values (golden ratio)
+	 */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	/**
+	 * lock held while the global generator is used on behalf of a replica
+	 */
+	private static final Object GLOBAL_GENERATOR_LOCK = new Object();
+	
+	/**
+	 * Not instantiable
+	 */
+	private ReplicaRandom() {
+	}
+	
+	/**
+	 * Returns the random stream of a replica
+	 * @param seed the base seed
+	 * @param replica the index of the replica
+	 * @param solutionKey a key of the solution being simulated (0 if replicas do not depend on the solution)
+	 * @return a random generator for the replica
+	 */
+	public static SplittableRandom stream(long seed, int replica, long solutionKey) {
+		long z = mix(seed);
+		z = mix(z + GOLDEN_GAMMA * (replica + 1L));
+		z = mix(z ^ solutionKey);
+		return new SplittableRandom(z);
+	}
+	
+	/**
+	 * Runs an action drawing from the global generator, after seeding the generator
+	 * with a value taken from the stream of a replica. Actions are run one at a time
+	 * (in this JVM), so the draws of an action never interleave with those of another 
+	 * replica, and its outcome only depends on the seed.
+	 * @param <T> the type of the result of the action
+	 * @param globalSeed the seed of the global generator (taken from the stream of the replica)
+	 * @param action the action
+	 * @return the result of the action
+	 */
+	public static <T> T withGlobalGenerator(long globalSeed, Supplier<T> action) {
+		synchronized (GLOBAL_GENERATOR_LOCK) {
+			es.uma.lcc.caesium.statistics.Random.random.setSeed(globalSeed);
+			return action.get();
+		}
+	}
+	
+	/**
+	 * Scrambles the bits of a 64-bit value (finalizer of SplitMix64)
+	 * @param z a value
+	 * @return the scrambled value
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
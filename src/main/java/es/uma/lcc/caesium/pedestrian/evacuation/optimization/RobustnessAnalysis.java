@@ -0,0 +1,297 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
+
+/**
+ * Post-run analysis of the robustness of solutions: the best solution of each run
+ * is simulated a large number of times and the fitness of each simulation is
+ * written to a CSV file (one row per run, one column per simulation) and/or to a 
+ * binary columnar file. Solutions
+ * are simulated concurrently, and rows are written (in order of runs) as soon as
+ * they are available. Rows already present in the file (e.g., from an interrupted
+ * analysis) are kept and their solutions are not simulated again, provided they
+ * were computed for the same solution, environment and simulation configuration:
+ * an identifier of each row is recorded in a sidecar file (the CSV file with 
+ * extension {@code .ids}), so the CSV file keeps its format. If both files are 
+ * written, the runs kept are those complete in both of them, so both files always 
+ * hold the same simulations.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class RobustnessAnalysis {
+	/**
+	 * default number of simulations per solution
+	 */
+	public static final int DEFAULT_SIMULATIONS = 1000;
+	/**
+	 * extension of the CSV output file
+	 */
+	private static final String CSV_EXTENSION = ".csv";
+	/**
+	 * extension of the binary output file
+	 */
+	private static final String BINARY_EXTENSION = ".bin";
+	/**
+	 * extension of the sidecar file with the identifiers of the rows of the CSV file
+	 */
+	private static final String IDS_EXTENSION = ".ids";
+	/**
+	 * the evacuation problem
+	 */
+	private final ExitEvacuationProblem eep;
+	/**
+	 * number of simulations per solution
+	 */
+	private final int numSimulations;
+	/**
+	 * description of the environment, simulation configuration and number of simulations 
+	 * (common to the identifiers of all solutions)
+	 */
+	private final String context;
+
+
+	/**
+	 * Creates the analysis
+	 * @param eep the evacuation problem
+	 * @param numSimulations number of simulations per solution
+	 */
+	public RobustnessAnalysis(ExitEvacuationProblem eep, int numSimulations) {
+		this.eep = eep;
+		this.numSimulations = numSimulations;
+		context = Long.toHexString(SimulationStore.hash(eep.getEnvironment().jsonPrettyPrinted())) + ";" 
+				+ eep.getSimulationConfiguration().fingerprint() + ";" + numSimulations + ";";
+	}
+
+
+	/**
+	 * Creates the analysis with the default number of simulations per solution
+	 * @param eep the evacuation problem
+	 */
+	public RobustnessAnalysis(ExitEvacuationProblem eep) {
+		this(eep, DEFAULT_SIMULATIONS);
+	}
+
+
+	/**
+	 * Returns the identifier of the analysis of a solution, which depends on the exits 
+	 * of the solution, the environment, the simulation configuration (see
+	 * {@link es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration#fingerprint})
+	 * and the number of simulations
+	 * @param solution the list of exits to be added to the environment
+	 * @return the identifier of the analysis of the solution
+	 */
+	public long identifier(List<Access> solution) {
+		return SimulationStore.hash(context + ExitLayoutKey.of(solution));
+	}
+
+
+	/**
+	 * Simulates the solutions and writes the results to a CSV file and/or to a binary 
+	 * columnar file (see {@link SimulationResultsFile}) named as the CSV file with 
+	 * extension {@code .bin}, as indicated by the {@code analysis} settings of the 
+	 * simulation configuration.
+	 * @param filename name of the CSV file
+	 * @param solutions the solution of each run (given by the list of exits to be added to the environment)
+	 * @throws IOException if the file cannot be read/written
+	 */
+	public void run(String filename, List<List<Access>> solutions) throws IOException {
+		int numRuns = solutions.size();
+		var conf = eep.getSimulationConfiguration();
+		String format = conf.getString("analysis/format");
+		boolean csv = !format.equals("binary");
+		boolean binary = !format.equals("csv");
+		String[] ids = new String[numRuns];
+		for (int i = 0; i < numRuns; i++) {
+			ids[i] = Long.toHexString(identifier(solutions.get(i)));
+		}
+		
+		Path path = Path.of(filename);
+		Path idsPath = Path.of(filename + IDS_EXTENSION);
+		SimulationResultsFile results = null;
+		boolean[] pending = new boolean[numRuns];
+		int done = numRuns;
+		if (binary) {
+			Path binaryPath = Path.of(filename.endsWith(CSV_EXTENSION) 
+					? filename.substring(0, filename.length() - CSV_EXTENSION.length()) + BINARY_EXTENSION 
+					: filename + BINARY_EXTENSION);
+			long fingerprint = SimulationStore.hash(String.join(",", ids));
+			results = SimulationResultsFile.create(binaryPath, fingerprint, numRuns, numSimulations, Boolean.parseBoolean(conf.getString("analysis/summary")));
+			for (int i = 0; i < numRuns; i++) {
+				pending[i] = !results.isComplete(i);
+			}
+			if (csv) {
+				// only runs complete in both files are kept
+				done = 0;
+				while ((done < numRuns) && !pending[done])
+					done++;
+			}
+		}
+		if (csv) {
+			done = completedRows(path, idsPath, ids, numSimulations, done);
+			for (int i = 0; i < numRuns; i++) {
+				pending[i] = (i >= done);
+			}
+		}
+		int numPending = 0;
+		for (boolean p: pending) {
+			if (p)
+				numPending++;
+		}
+		if (numPending == 0) {
+			System.out.println("All " + numRuns + " solutions already analyzed in " + filename);
+			if (results != null)
+				results.close();
+			return;
+		}
+
+		// launch the simulations of the pending solutions
+		List<Future<List<SimulationSummary>>> futures = new ArrayList<Future<List<SimulationSummary>>>(numRuns);
+		var executor = eep.getExecutor();
+		for (int i = 0; i < numRuns; i++) {
+			List<Access> accesses = solutions.get(i);
+			futures.add((executor == null) || !pending[i] ? null : executor.submit(() -> eep.simulate(accesses, numSimulations)));
+		}
+
+		BufferedWriter out = null;
+		BufferedWriter idsOut = null;
+		try {
+			if (csv) {
+				out = (done == 0)
+						? Files.newBufferedWriter(path, StandardCharsets.UTF_8)
+						: Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+				idsOut = (done == 0)
+						? Files.newBufferedWriter(idsPath, StandardCharsets.UTF_8)
+						: Files.newBufferedWriter(idsPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			}
+			if (out != null && (done == 0)) {
+				StringBuilder header = new StringBuilder("run");
+				for (int j = 0; j < numSimulations; j++) {
+					header.append(",sim").append(j);
+				}
+				out.write(header.toString());
+				out.newLine();
+				out.flush();
+			}
+			for (int i = 0; i < numRuns; i++) {
+				if (!pending[i])
+					continue;
+				Future<List<SimulationSummary>> future = futures.get(i);
+				List<SimulationSummary> summaries = (future == null) ? eep.simulate(solutions.get(i), numSimulations) : future.get();
+				double[] fitness = new double[summaries.size()];
+				for (int j = 0; j < fitness.length; j++) {
+					fitness[j] = eep.fitness(summaries.get(j));
+				}
+				if (out != null) {
+					StringBuilder row = new StringBuilder().append(i);
+					for (double f: fitness) {
+						row.append(',').append(f);
+					}
+					out.write(row.toString());
+					out.newLine();
+					out.flush();
+					// the row only counts as complete once its identifier is recorded
+					idsOut.write(i + "," + ids[i]);
+					idsOut.newLine();
+					idsOut.flush();
+				}
+				if (results != null) {
+					results.writeRun(i, fitness, summaries);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Analysis interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Analysis failed", e.getCause());
+		} finally {
+			if (out != null)
+				out.close();
+			if (idsOut != null)
+				idsOut.close();
+			if (results != null)
+				results.close();
+		}
+	}
+
+
+	/**
+	 * Checks how many rows of a previous analysis are complete and belong to the same
+	 * solutions. Rows are written in order, so complete rows form a prefix of the file; 
+	 * anything after them (e.g., a row partially written, or a row of a different 
+	 * solution) is discarded, both in the CSV file and in its sidecar file.
+	 * @param path the CSV file
+	 * @param idsPath the sidecar file with the identifier of each row
+	 * @param ids the identifier of the analysis of each solution
+	 * @param numSimulations number of simulations per solution
+	 * @param limit the maximum number of rows to keep
+	 * @return the number of complete rows (0 if the file does not exist or does not match the analysis)
+	 * @throws IOException if the files cannot be read/truncated
+	 */
+	static int completedRows(Path path, Path idsPath, String[] ids, int numSimulations, int limit) throws IOException {
+		List<Long> rows = lineEnds(path, (k, line) -> (k == 0) 
+				? (line.split(",").length == numSimulations + 1)
+				: (line.startsWith((k - 1) + ",") && (line.split(",").length == numSimulations + 1)));
+		List<Long> identified = lineEnds(idsPath, (k, line) -> (k < ids.length) && line.equals(k + "," + ids[k]));
+		int done = Math.min(limit, Math.min(Math.max(0, rows.size() - 1), identified.size()));
+		if (rows.isEmpty())
+			return 0;
+		truncate(path, rows.get(done));
+		truncate(idsPath, (done == 0) ? 0 : identified.get(done - 1));
+		return done;
+	}
+
+
+	/**
+	 * Returns the end offsets of the leading lines of a file that satisfy a condition 
+	 * (a last line without line terminator is not considered)
+	 * @param path the file
+	 * @param valid the condition, given the index of the line and the line
+	 * @return the offset of the end of each line (empty if the file does not exist)
+	 * @throws IOException if the file cannot be read
+	 */
+	private static List<Long> lineEnds(Path path, BiPredicate<Integer, String> valid) throws IOException {
+		List<Long> ends = new ArrayList<Long>();
+		if (!Files.exists(path))
+			return ends;
+		List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+		long size = Files.size(path);
+		long length = 0;
+		for (int k = 0; k < lines.size(); k++) {
+			String line = lines.get(k);
+			long end = length + line.length() + System.lineSeparator().length();
+			if ((end > size) || !valid.test(k, line))
+				break;
+			ends.add(end);
+			length = end;
+		}
+		return ends;
+	}
+
+
+	/**
+	 * Truncates a file (if it exists)
+	 * @param path the file
+	 * @param length the new length of the file
+	 * @throws IOException if the file cannot be truncated
+	 */
+	private static void truncate(Path path, long length) throws IOException {
+		if (!Files.exists(path))
+			return;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(length);
+		}
+	}
+}
@@ -0,0 +1,449 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary columnar file with the results of the simulations of a number of solutions
+ * (runs). Each column (e.g., the fitness or a field of the simulation summary) holds
+ * numRuns x numSimulations float64 values (little endian), stored run after run.
+ * The layout is:
+ * <ul>
+ * <li> header: magic number (8 bytes), fingerprint of the solutions and configuration
+ * analyzed (8 bytes), number of runs, number of simulations per run and number of 
+ * columns (ints), followed by the name of each column (int length and UTF-8 bytes)</li>
+ * <li> completion flags: one byte per run (1 once the values of the run have been written)</li>
+ * <li> padding up to a multiple of 8 bytes</li>
+ * <li> data: one block of numRuns x numSimulations doubles per column</li>
+ * </ul>
+ * Files are written through a file channel (runs can be written in any order) and
+ * read through memory mapping. As a single mapping cannot exceed 2 GB, the data is
+ * mapped in segments holding a whole number of blocks (the values of a column in a
+ * run), so files of any size can be read as long as a block fits in a mapping.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class SimulationResultsFile implements Closeable {
+	/**
+	 * magic number identifying the file format
+	 */
+	private static final long MAGIC = 0x324d4953534f4550L;     // "PEOSSIM2"
+	/**
+	 * name of the fitness column
+	 */
+	public static final String FITNESS = "fitness";
+	/**
+	 * names of the columns with the fields of the simulation summary
+	 */
+	public static final List<String> SUMMARY = List.of("nonEvacuees", "minDistance", "meanDistance", "maxTime", "meanTime");
+	/**
+	 * maximum size (in bytes) of a mapped segment of the data
+	 */
+	private static final long MAX_SEGMENT = 1L << 30;
+	/**
+	 * channel to the file (null if the file is only read)
+	 */
+	private final FileChannel channel;
+	/**
+	 * the header and completion flags mapped in memory (null if the file is only written)
+	 */
+	private final MappedByteBuffer mapped;
+	/**
+	 * the data mapped in memory, in segments of a whole number of blocks (null if the file is only written)
+	 */
+	private final MappedByteBuffer[] segments;
+	/**
+	 * number of blocks (values of a column in a run) per mapped segment
+	 */
+	private final int blocksPerSegment;
+	/**
+	 * fingerprint of the solutions and configuration analyzed
+	 */
+	private final long fingerprint;
+	/**
+	 * number of runs
+	 */
+	private final int numRuns;
+	/**
+	 * number of simulations per run
+	 */
+	private final int numSimulations;
+	/**
+	 * names of the columns
+	 */
+	private final List<String> columns;
+	/**
+	 * offset of the completion flags
+	 */
+	private final long flagsOffset;
+	/**
+	 * offset of the data
+	 */
+	private final long dataOffset;
+
+
+	/**
+	 * Creates the handle of a file
+	 * @param channel channel to the file (null if the file is only read)
+	 * @param mapped the header and completion flags mapped in memory (null if the file is only written)
+	 * @param segments the data mapped in memory (null if the file is only written)
+	 * @param fingerprint fingerprint of the solutions and configuration analyzed
+	 * @param numRuns number of runs
+	 * @param numSimulations number of simulations per run
+	 * @param columns names of the columns
+	 * @param flagsOffset offset of the completion flags
+	 */
+	private SimulationResultsFile(FileChannel channel, MappedByteBuffer mapped, MappedByteBuffer[] segments, long fingerprint, 
+			int numRuns, int numSimulations, List<String> columns, long flagsOffset) {
+		this.channel = channel;
+		this.mapped = mapped;
+		this.segments = segments;
+		this.fingerprint = fingerprint;
+		this.numRuns = numRuns;
+		this.numSimulations = numSimulations;
+		this.columns = columns;
+		this.flagsOffset = flagsOffset;
+		this.dataOffset = dataOffset(flagsOffset, numRuns);
+		this.blocksPerSegment = blocksPerSegment(numSimulations);
+	}
+
+
+	/**
+	 * Creates a file for writing, or opens it if it already exists with the same
+	 * layout and fingerprint (so that runs already written can be kept; a file written 
+	 * for other solutions or another configuration is overwritten).
+	 * @param path the file
+	 * @param fingerprint fingerprint of the solutions and configuration analyzed
+	 * @param numRuns number of runs
+	 * @param numSimulations number of simulations per run
+	 * @param summary whether the fields of the simulation summary are stored (in addition to the fitness)
+	 * @return the file
+	 * @throws IOException if the file cannot be created
+	 */
+	public static SimulationResultsFile create(Path path, long fingerprint, int numRuns, int numSimulations, boolean summary) throws IOException {
+		if (blockBytes(numSimulations) > MAX_SEGMENT)
+			throw new IOException("Too many simulations per run (" + numSimulations + ") for " + path);
+		List<String> columns = new ArrayList<String>();
+		columns.add(FITNESS);
+		if (summary)
+			columns.addAll(SUMMARY);
+		ByteBuffer header = header(fingerprint, numRuns, numSimulations, columns);
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		SimulationResultsFile file = new SimulationResultsFile(channel, null, null, fingerprint, numRuns, numSimulations, columns, header.remaining());
+		ByteBuffer existing = ByteBuffer.allocate(header.remaining());
+		if ((channel.size() != file.size()) || (channel.read(existing, 0) != existing.capacity()) || !existing.flip().equals(header)) {
+			// new file (or different layout or fingerprint): write header and clear flags
+			channel.truncate(0);
+			write(channel, header, 0);
+			write(channel, ByteBuffer.allocate((int)(file.dataOffset - file.flagsOffset)), file.flagsOffset);
+			write(channel, ByteBuffer.allocate(1), file.size() - 1);
+		}
+		return file;
+	}
+
+
+	/**
+	 * Opens a file for reading (through memory mapping)
+	 * @param path the file
+	 * @return the file
+	 * @throws IOException if the file cannot be read or has a wrong format
+	 */
+	public static SimulationResultsFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			// the header is read from a first mapping, and then the header and flags are mapped
+			MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+			head.order(ByteOrder.LITTLE_ENDIAN);
+			if ((size < 2 * Long.BYTES + 3 * Integer.BYTES) || (head.getLong() != MAGIC))
+				throw new IOException(path + " is not a simulation results file");
+			long fingerprint = head.getLong();
+			int numRuns = head.getInt();
+			int numSimulations = head.getInt();
+			int numColumns = head.getInt();
+			if ((numRuns < 0) || (numSimulations < 0) || (numColumns < 0) || (blockBytes(numSimulations) > MAX_SEGMENT))
+				throw new IOException(path + " has an unsupported layout");
+			List<String> columns = new ArrayList<String>(numColumns);
+			for (int c = 0; c < numColumns; c++) {
+				byte[] name = new byte[head.getInt()];
+				head.get(name);
+				columns.add(new String(name, StandardCharsets.UTF_8));
+			}
+			long flagsOffset = head.position();
+			long dataOffset = dataOffset(flagsOffset, numRuns);
+			if (dataOffset > Integer.MAX_VALUE)
+				throw new IOException(path + " has an unsupported layout");
+			long blocks = (long) numColumns * numRuns;
+			if (size != dataOffset + blocks * blockBytes(numSimulations))
+				throw new IOException(path + " is truncated");
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			int perSegment = blocksPerSegment(numSimulations);
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((blocks + perSegment - 1) / perSegment)];
+			for (int k = 0; k < segments.length; k++) {
+				long first = (long) k * perSegment;
+				long length = Math.min(perSegment, blocks - first) * blockBytes(numSimulations);
+				segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + first * blockBytes(numSimulations), length);
+				segments[k].order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new SimulationResultsFile(null, mapped, segments, fingerprint, numRuns, numSimulations, List.copyOf(columns), flagsOffset);
+		}
+	}
+
+
+	/**
+	 * Checks whether a path holds a simulation results file
+	 * @param path the path
+	 * @return true if the path is a simulation results file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isResultsFile(Path path) throws IOException {
+		if (!Files.isRegularFile(path) || Files.size(path) < Long.BYTES)
+			return false;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			channel.read(magic, 0);
+			return magic.getLong(0) == MAGIC;
+		}
+	}
+
+
+	/**
+	 * Returns the fingerprint of the solutions and configuration analyzed
+	 * @return the fingerprint
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+
+	/**
+	 * Returns the number of runs
+	 * @return the number of runs
+	 */
+	public int getNumRuns() {
+		return numRuns;
+	}
+
+
+	/**
+	 * Returns the number of simulations per run
+	 * @return the number of simulations per run
+	 */
+	public int getNumSimulations() {
+		return numSimulations;
+	}
+
+
+	/**
+	 * Returns the names of the columns
+	 * @return the names of the columns
+	 */
+	public List<String> getColumns() {
+		return columns;
+	}
+
+
+	/**
+	 * Checks whether the values of a run have been written
+	 * @param run index of the run
+	 * @return true if the values of the run have been written
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean isComplete(int run) throws IOException {
+		if (mapped != null)
+			return mapped.get((int)(flagsOffset + run)) != 0;
+		ByteBuffer flag = ByteBuffer.allocate(1);
+		channel.read(flag, flagsOffset + run);
+		return flag.get(0) != 0;
+	}
+
+
+	/**
+	 * Writes the results of the simulations of a run, and marks the run as complete
+	 * @param run index of the run
+	 * @param fitness the fitness of each simulation
+	 * @param summaries the summary of each simulation (only used if summary columns are stored)
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeRun(int run, double[] fitness, List<SimulationSummary> summaries) throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(numSimulations * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		for (int c = 0; c < columns.size(); c++) {
+			block.clear();
+			DoubleBuffer values = block.asDoubleBuffer();
+			for (int j = 0; j < numSimulations; j++) {
+				values.put(c == 0 ? fitness[j] : field(summaries.get(j), c - 1));
+			}
+			write(channel, block, offset(c, run, 0));
+		}
+		channel.force(false);
+		write(channel, ByteBuffer.wrap(new byte[] {1}), flagsOffset + run);
+	}
+
+
+	/**
+	 * Returns a value
+	 * @param column the name of the column
+	 * @param run index of the run
+	 * @param simulation index of the simulation
+	 * @return the value of the column in the given simulation of the given run
+	 */
+	public double get(String column, int run, int simulation) {
+		long block = (long) columnIndex(column) * numRuns + run;
+		int start = (int) (block % blocksPerSegment) * numSimulations * Double.BYTES;
+		return segments[(int) (block / blocksPerSegment)].getDouble(start + simulation * Double.BYTES);
+	}
+
+
+	/**
+	 * Returns the values of a column in a run (as a view of the mapped file)
+	 * @param column the name of the column
+	 * @param run index of the run
+	 * @return the values of the column in each simulation of the run
+	 */
+	public DoubleBuffer getRun(String column, int run) {
+		long block = (long) columnIndex(column) * numRuns + run;
+		int start = (int) (block % blocksPerSegment) * numSimulations * Double.BYTES;
+		return segments[(int) (block / blocksPerSegment)].slice(start, numSimulations * Double.BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null)
+			channel.close();
+	}
+
+
+	/**
+	 * Returns the index of a column
+	 * @param column the name of the column
+	 * @return the index of the column
+	 */
+	private int columnIndex(String column) {
+		int c = columns.indexOf(column);
+		if (c < 0)
+			throw new IllegalArgumentException("Unknown column " + column + " (available: " + columns + ")");
+		return c;
+	}
+
+
+	/**
+	 * Returns the offset of a value in the file
+	 * @param column index of the column
+	 * @param run index of the run
+	 * @param simulation index of the simulation
+	 * @return the offset of the value
+	 */
+	private long offset(int column, int run, int simulation) {
+		return dataOffset + (((long)column * numRuns + run) * numSimulations + simulation) * Double.BYTES;
+	}
+
+
+	/**
+	 * Returns the size of the file
+	 * @return the size of the file
+	 */
+	private long size() {
+		return offset(columns.size(), 0, 0);
+	}
+
+
+	/**
+	 * Returns the offset of the data given the offset of the completion flags
+	 * @param flagsOffset offset of the completion flags
+	 * @param numRuns number of runs
+	 * @return the offset of the data (padded to a multiple of 8 bytes)
+	 */
+	private static long dataOffset(long flagsOffset, int numRuns) {
+		return (flagsOffset + numRuns + 7) / 8 * 8;
+	}
+
+
+	/**
+	 * Returns the size of a block (the values of a column in a run)
+	 * @param numSimulations number of simulations per run
+	 * @return the size (in bytes) of a block
+	 */
+	private static long blockBytes(int numSimulations) {
+		return (long) numSimulations * Double.BYTES;
+	}
+
+
+	/**
+	 * Returns the number of blocks per mapped segment of the data
+	 * @param numSimulations number of simulations per run
+	 * @return the number of blocks per segment (at least one)
+	 */
+	private static int blocksPerSegment(int numSimulations) {
+		return (int) Math.max(1, MAX_SEGMENT / Math.max(1, blockBytes(numSimulations)));
+	}
+
+
+	/**
+	 * Returns a field of a simulation summary
+	 * @param s the simulation summary
+	 * @param field index of the field (in the order of {@link #SUMMARY})
+	 * @return the value of the field
+	 */
+	private static double field(SimulationSummary s, int field) {
+		return switch (field) {
+		case 0 -> s.nonEvacuees();
+		case 1 -> s.minDistance();
+		case 2 -> s.meanDistance();
+		case 3 -> s.maxTime();
+		default -> s.meanTime();
+		};
+	}
+
+
+	/**
+	 * Builds the header of a file
+	 * @param fingerprint fingerprint of the solutions and configuration analyzed
+	 * @param numRuns number of runs
+	 * @param numSimulations number of simulations per run
+	 * @param columns names of the columns
+	 * @return the header (ready to be written)
+	 */
+	private static ByteBuffer header(long fingerprint, int numRuns, int numSimulations, List<String> columns) {
+		List<byte[]> names = columns.stream().map(c -> c.getBytes(StandardCharsets.UTF_8)).toList();
+		int size = 2 * Long.BYTES + 3 * Integer.BYTES + names.stream().mapToInt(n -> Integer.BYTES + n.length).sum();
+		ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(MAGIC).putLong(fingerprint).putInt(numRuns).putInt(numSimulations).putInt(columns.size());
+		for (byte[] name: names) {
+			header.putInt(name.length).put(name);
+		}
+		return header.flip();
+	}
+
+
+	/**
+	 * Writes a buffer at a certain position of a channel
+	 * @param channel the channel
+	 * @param buffer the buffer
+	 * @param position the position
+	 * @throws IOException if the buffer cannot be written
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+
+	@Override
+	public String toString() {
+		return "Simulation results: " + numRuns + " runs x " + numSimulations + " simulations, columns " + columns;
+	}
+}
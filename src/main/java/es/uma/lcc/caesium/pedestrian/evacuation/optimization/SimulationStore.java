@@ -0,0 +1,295 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent store of simulation results, shared across runs and processes. 
+ * Each store is a file holding the per-replica results of the simulations 
+ * performed on a certain environment with a certain simulation configuration.
+ * Records are appended at the end of the file under an exclusive file lock and
+ * read (through memory mapping) under a shared lock, so several JVMs can use 
+ * the same store concurrently. Each record ends with a checksum, so corrupt or
+ * incomplete records (e.g., left by a process killed while writing) are skipped,
+ * and reading resumes at the next valid record. Stores are shared by all the 
+ * problems of a JVM using them, and the file is closed once all of them have
+ * closed it. Each record contains:
+ * <ul>
+ * <li> a magic number (int)</li>
+ * <li> the length k of the key of the exit layout (int)</li>
+ * <li> the solution key used to seed the replica (long)</li>
+ * <li> the key of the exit layout (k longs)</li>
+ * <li> the index of the replica (int)</li>
+ * <li> the fields of the simulation summary (5 doubles)</li>
+ * <li> the CRC-32C checksum of the previous fields (int)</li>
+ * </ul>
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public final class SimulationStore implements Closeable {
+	/**
+	 * magic number at the beginning of each record
+	 */
+	private static final int MAGIC = 0x53494d32;
+	/**
+	 * size (in bytes) of a record excluding the key of the exit layout
+	 */
+	private static final int FIXED_RECORD_SIZE = 4 + 4 + 8 + 4 + 5 * 8 + 4;
+	/**
+	 * maximum length of the key of the exit layout (longer ones are taken as corrupt)
+	 */
+	private static final int MAX_KEY_LENGTH = 1 << 16;
+	/**
+	 * maximum size (in bytes) of the part of the file mapped at a time
+	 */
+	private static final long MAX_WINDOW = 1L << 26;
+	/**
+	 * stores already opened in this JVM (file locks are held on behalf of the whole JVM)
+	 */
+	private static final Map<Path, SimulationStore> OPEN_STORES = new HashMap<Path, SimulationStore>();
+	/**
+	 * the file of the store
+	 */
+	private final Path path;
+	/**
+	 * channel to the file of the store
+	 */
+	private final FileChannel channel;
+	/**
+	 * number of problems using the store in this JVM (guarded by the class lock)
+	 */
+	private int references;
+	/**
+	 * number of bytes of the file already indexed
+	 */
+	private long indexed;
+	/**
+	 * results read from the file, indexed by solution and replica
+	 */
+	private final Map<StoreKey, Map<Integer, SimulationSummary>> index;
+	
+	/**
+	 * Key of the results of a solution
+	 * @param layout the key of the exit layout
+	 * @param solutionKey the solution key used to seed the replicas
+	 */
+	private record StoreKey(ExitLayoutKey layout, long solutionKey) {}
+	
+	/**
+	 * Opens the store
+	 * @param path the file of the store
+	 * @throws IOException if the file cannot be opened
+	 */
+	private SimulationStore(Path path) throws IOException {
+		this.path = path;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		indexed = 0;
+		index = new HashMap<StoreKey, Map<Integer, SimulationSummary>>();
+	}
+	
+	/**
+	 * Opens (creating it if needed) the store for a given environment and simulation configuration
+	 * @param directory the directory where stores are kept
+	 * @param environmentHash hash of the environment
+	 * @param configurationHash hash of the simulation configuration
+	 * @return the store
+	 * @throws IOException if the store cannot be opened
+	 */
+	public static synchronized SimulationStore open(Path directory, long environmentHash, long configurationHash) throws IOException {
+		Files.createDirectories(directory);
+		Path path = directory.resolve(String.format("simulations2-%016x-%016x.bin", environmentHash, configurationHash)).toAbsolutePath();
+		SimulationStore store = OPEN_STORES.get(path);
+		if (store == null) {
+			store = new SimulationStore(path);
+			OPEN_STORES.put(path, store);
+		}
+		store.references++;
+		return store;
+	}
+	
+	/**
+	 * Releases the store. The file is closed once all the users of the store in this 
+	 * JVM have released it.
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (SimulationStore.class) {
+			if (references == 0)
+				return;
+			if (--references > 0)
+				return;
+			OPEN_STORES.remove(path);
+		}
+		synchronized (this) {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Computes a 64-bit hash (FNV-1a) of a string
+	 * @param str a string
+	 * @return the hash of the string
+	 */
+	public static long hash(String str) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b: str.getBytes(StandardCharsets.UTF_8)) {
+			h ^= (b & 0xff);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+	
+	/**
+	 * Returns the file of the store
+	 * @return the file of the store
+	 */
+	public Path getPath() {
+		return path;
+	}
+	
+	/**
+	 * Looks up the results of some replicas of a solution
+	 * @param layout the key of the exit layout
+	 * @param solutionKey the solution key used to seed the replicas
+	 * @param first index of the first replica
+	 * @param count number of replicas
+	 * @return the results of replicas first...first+count-1 (null for those not found)
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized SimulationSummary[] lookup(ExitLayoutKey layout, long solutionKey, int first, int count) throws IOException {
+		FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+		try {
+			refresh();
+		} finally {
+			lock.release();
+		}
+		SimulationSummary[] summaries = new SimulationSummary[count];
+		Map<Integer, SimulationSummary> results = index.get(new StoreKey(layout, solutionKey));
+		if (results != null) {
+			for (int i = 0; i < count; i++) {
+				summaries[i] = results.get(first + i);
+			}
+		}
+		return summaries;
+	}
+	
+	/**
+	 * Appends the results of some replicas of a solution to the end of the store
+	 * @param layout the key of the exit layout
+	 * @param solutionKey the solution key used to seed the replicas
+	 * @param replicas indices of the replicas
+	 * @param summaries results of the replicas
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void append(ExitLayoutKey layout, long solutionKey, int[] replicas, SimulationSummary[] summaries) throws IOException {
+		long[] key = layout.toArray();
+		int recordSize = FIXED_RECORD_SIZE + 8 * key.length;
+		ByteBuffer buffer = ByteBuffer.allocate(recordSize * replicas.length);
+		CRC32C crc = new CRC32C();
+		for (int i = 0; i < replicas.length; i++) {
+			SimulationSummary s = summaries[i];
+			int start = buffer.position();
+			buffer.putInt(MAGIC).putInt(key.length).putLong(solutionKey);
+			for (long v: key) {
+				buffer.putLong(v);
+			}
+			buffer.putInt(replicas[i]);
+			buffer.putDouble(s.nonEvacuees()).putDouble(s.minDistance()).putDouble(s.meanDistance())
+			      .putDouble(s.maxTime()).putDouble(s.meanTime());
+			crc.reset();
+			crc.update(buffer.slice(start, recordSize - 4));
+			buffer.putInt((int) crc.getValue());
+		}
+		buffer.flip();
+		FileLock lock = channel.lock(0, Long.MAX_VALUE, false);
+		try {
+			refresh();
+			// records are never overwritten: whatever lies before the end of the file is kept
+			long position = channel.size();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			refresh();
+		} finally {
+			lock.release();
+		}
+	}
+	
+	/**
+	 * Indexes the records appended to the file since the last refresh (a lock must be 
+	 * held). The file is mapped in windows, so it can be larger than a single mapping.
+	 * @throws IOException if the file cannot be read
+	 */
+	private void refresh() throws IOException {
+		long size = channel.size();
+		while (indexed < size) {
+			long length = Math.min(size - indexed, MAX_WINDOW);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, indexed, length);
+			int scanned = scan(buffer, indexed + length == size);
+			if (scanned == 0)
+				break; // the end of the file is too short to hold a record
+			indexed += scanned;
+		}
+	}
+	
+	/**
+	 * Indexes the valid records in a window of the file, skipping corrupt data byte
+	 * by byte until the beginning of the next valid record is found
+	 * @param buffer the window of the file
+	 * @param last whether the window reaches the end of the file
+	 * @return the number of bytes of the window scanned (a record that does not fit in
+	 * the window is left for the next one, as is the end of the file if it is too short
+	 * to hold a record)
+	 */
+	private int scan(ByteBuffer buffer, boolean last) {
+		CRC32C crc = new CRC32C();
+		int position = 0;
+		int limit = buffer.limit();
+		while (limit - position >= FIXED_RECORD_SIZE) {
+			int length = buffer.getInt(position + 4);
+			if ((buffer.getInt(position) != MAGIC) || (length < 0) || (length > MAX_KEY_LENGTH)) {
+				position++;
+				continue;
+			}
+			int recordSize = FIXED_RECORD_SIZE + 8 * length;
+			if (limit - position < recordSize) {
+				if (!last)
+					return position;
+				// records are written under an exclusive lock, so an incomplete one is left by a failed writer
+				position++;
+				continue;
+			}
+			crc.reset();
+			crc.update(buffer.slice(position, recordSize - 4));
+			if ((int) crc.getValue() != buffer.getInt(position + recordSize - 4)) {
+				position++;
+				continue;
+			}
+			buffer.position(position + 8);
+			long solutionKey = buffer.getLong();
+			long[] key = new long[length];
+			for (int k = 0; k < length; k++) {
+				key[k] = buffer.getLong();
+			}
+			int replica = buffer.getInt();
+			SimulationSummary summary = new SimulationSummary(buffer.getDouble(), buffer.getDouble(), 
+					buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+			index.computeIfAbsent(new StoreKey(ExitLayoutKey.fromArray(key), solutionKey), k -> new HashMap<Integer, SimulationSummary>())
+			     .put(replica, summary);
+			position += recordSize;
+		}
+		return position;
+	}
+}
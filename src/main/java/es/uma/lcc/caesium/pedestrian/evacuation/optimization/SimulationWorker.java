@@ -0,0 +1,339 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Environment;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Shape;
+
+/**
+ * Worker process that runs simulations on behalf of a {@link DistributedSimulator}.
+ * It listens on a TCP port and serves any number of connections. Connections are not
+ * authenticated, so by default the worker only listens on the loopback interface, and
+ * listening on other interfaces (to serve remote coordinators) must be explicitly 
+ * requested with a bind address. Environments are
+ * loaded once (when first defined by a coordinator) and kept resident, so subsequent
+ * requests only carry the exits and the replicas to be simulated. The protocol is:
+ * <ul>
+ * <li> {@code DEFINE id numExits environment parameters}: defines an environment (no reply)</li>
+ * <li> {@code SIMULATE id request solutionKey limit exits replicas}: replies {@code OK} 
+ * followed by the summary of each replica, {@code UNKNOWN} if the environment is not 
+ * defined, or {@code ERROR message}</li>
+ * <li> {@code CANCEL request}: stops a simulation request being served on another 
+ * connection once its current replica is finished (no reply)</li>
+ * </ul>
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class SimulationWorker {
+	/**
+	 * request: definition of an environment
+	 */
+	static final int DEFINE = 1;
+	/**
+	 * request: simulation of some replicas
+	 */
+	static final int SIMULATE = 2;
+	/**
+	 * request: cancellation of a simulation request
+	 */
+	static final int CANCEL = 3;
+	/**
+	 * reply: request served
+	 */
+	static final int OK = 0;
+	/**
+	 * reply: unknown environment
+	 */
+	static final int UNKNOWN = 1;
+	/**
+	 * reply: the simulations failed
+	 */
+	static final int ERROR = 2;
+	/**
+	 * line printed to the standard output once the worker is listening (followed by the port)
+	 */
+	static final String READY = "listening on port ";
+	/**
+	 * resident evacuation problems, indexed by environment id
+	 */
+	private final Map<Long, ExitEvacuationProblem> problems = new ConcurrentHashMap<Long, ExitEvacuationProblem>();
+	/**
+	 * threads serving simulation requests, indexed by request id
+	 */
+	private final Map<Long, Thread> running = new ConcurrentHashMap<Long, Thread>();
+	/**
+	 * number of threads used to run simulations (0 to use the number configured by the coordinator)
+	 */
+	private final int numThreads;
+
+
+	/**
+	 * Creates a worker
+	 * @param numThreads number of threads used to run simulations (0 to use the number configured by the coordinator)
+	 */
+	public SimulationWorker(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+
+	/**
+	 * Main method
+	 * @param args command-line arguments: [port [threads [bind-address]]], where port 0 is
+	 * any free port, threads 0 is the number configured by the coordinator, and the bind 
+	 * address is the loopback address by default ("*" for all interfaces)
+	 * @throws IOException if the port cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 0;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+		InetAddress address = InetAddress.getLoopbackAddress();
+		if (args.length > 2)
+			address = args[2].equals("*") ? null : InetAddress.getByName(args[2]);
+		new SimulationWorker(threads).serve(port, address);
+	}
+
+
+	/**
+	 * Serves connections forever
+	 * @param port the port to listen to (0 for any free port)
+	 * @param address the local address to listen on (null for all interfaces)
+	 * @throws IOException if the port cannot be opened
+	 */
+	public void serve(int port, InetAddress address) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 0, address)) {
+			System.out.println(READY + server.getLocalPort());
+			System.out.flush();
+			while (true) {
+				Socket socket = server.accept();
+				Thread thread = new Thread(() -> handle(socket), "simulation-worker-" + socket.getPort());
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+
+	/**
+	 * Serves the requests of a connection until it is closed
+	 * @param socket the connection
+	 */
+	private void handle(Socket socket) {
+		try (socket;
+			 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			socket.setTcpNoDelay(true);
+			while (true) {
+				int request;
+				try {
+					request = in.readInt();
+				} catch (EOFException e) {
+					return;
+				}
+				switch (request) {
+				case DEFINE -> define(in);
+				case SIMULATE -> simulate(in, out);
+				case CANCEL -> cancel(in);
+				default -> throw new IOException("Unknown request " + request);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Connection closed: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Reads the definition of an environment and loads it (unless it is already resident)
+	 * @param in the input stream
+	 * @throws IOException if the definition cannot be read
+	 */
+	private void define(DataInputStream in) throws IOException {
+		long id = in.readLong();
+		int numExits = in.readInt();
+		String environment = readString(in);
+		int numParameters = in.readInt();
+		SimulationConfiguration conf = new SimulationConfiguration();
+		for (int i = 0; i < numParameters; i++) {
+			String key = readString(in);
+			conf.putValue(key, readString(in));
+		}
+		if (problems.containsKey(id))
+			return;
+		// simulations are run here, and results are stored by the coordinator
+		conf.putValue("store", "");
+		conf.putValue("workers/addresses", "");
+		conf.putValue("workers/local", "0");
+		if (numThreads > 0)
+			conf.putValue("numThreads", Integer.toString(numThreads));
+		Path file = Files.createTempFile("environment-", ".json");
+		try {
+			Files.writeString(file, environment);
+			problems.putIfAbsent(id, new ExitEvacuationProblem(Environment.fromFile(file.toString()), numExits, conf));
+		} catch (Exception e) {
+			throw new IOException("Cannot load environment " + id, e);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+
+	/**
+	 * Reads a simulation request, runs it and sends back the results
+	 * @param in the input stream
+	 * @param out the output stream
+	 * @throws IOException if the request cannot be read or the results cannot be sent
+	 */
+	private void simulate(DataInputStream in, DataOutputStream out) throws IOException {
+		long id = in.readLong();
+		long request = in.readLong();
+		long solutionKey = in.readLong();
+		double limit = in.readDouble();
+		List<Access> accesses = readAccesses(in);
+		int[] replicas = new int[in.readInt()];
+		for (int i = 0; i < replicas.length; i++) {
+			replicas[i] = in.readInt();
+		}
+		ExitEvacuationProblem eep = problems.get(id);
+		if (eep == null) {
+			out.writeInt(UNKNOWN);
+		}
+		else {
+			SimulationSummary[] summaries = new SimulationSummary[replicas.length];
+			running.put(request, Thread.currentThread());
+			try {
+				eep.simulate(accesses, replicas, summaries, solutionKey, limit);
+				out.writeInt(OK);
+				for (SimulationSummary s: summaries) {
+					writeSummary(out, s);
+				}
+			} catch (RuntimeException e) {
+				out.writeInt(ERROR);
+				writeString(out, String.valueOf(e));
+			} finally {
+				running.remove(request);
+				Thread.interrupted(); // the request may have been cancelled once finished
+			}
+		}
+		out.flush();
+	}
+
+
+	/**
+	 * Reads a cancellation request and interrupts the thread serving the 
+	 * simulation request (if it is still running)
+	 * @param in the input stream
+	 * @throws IOException if the request cannot be read
+	 */
+	private void cancel(DataInputStream in) throws IOException {
+		// atomic with the removal of the request, so that a finished request is never interrupted
+		running.computeIfPresent(in.readLong(), (request, thread) -> {
+			thread.interrupt();
+			return thread;
+		});
+	}
+
+
+	/**
+	 * Writes a list of rectangular accesses
+	 * @param out the output stream
+	 * @param accesses the accesses
+	 * @throws IOException if the accesses cannot be written
+	 */
+	static void writeAccesses(DataOutputStream out, List<Access> accesses) throws IOException {
+		out.writeInt(accesses.size());
+		for (Access access: accesses) {
+			Rectangle2D bounds = access.getShape().getAWTShape().getBounds2D();
+			out.writeDouble(bounds.getX());
+			out.writeDouble(bounds.getY());
+			out.writeDouble(bounds.getWidth());
+			out.writeDouble(bounds.getHeight());
+		}
+	}
+
+
+	/**
+	 * Reads a list of rectangular accesses
+	 * @param in the input stream
+	 * @return the accesses
+	 * @throws IOException if the accesses cannot be read
+	 */
+	static List<Access> readAccesses(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		List<Access> accesses = new ArrayList<Access>(n);
+		for (int i = 0; i < n; i++) {
+			Shape.Rectangle rectangle = new Shape.Rectangle(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+			accesses.add(new Access(i, "access " + i, "", rectangle));
+		}
+		return accesses;
+	}
+
+
+	/**
+	 * Writes the summary of a simulation
+	 * @param out the output stream
+	 * @param s the summary
+	 * @throws IOException if the summary cannot be written
+	 */
+	static void writeSummary(DataOutputStream out, SimulationSummary s) throws IOException {
+		out.writeDouble(s.nonEvacuees());
+		out.writeDouble(s.minDistance());
+		out.writeDouble(s.meanDistance());
+		out.writeDouble(s.maxTime());
+		out.writeDouble(s.meanTime());
+	}
+
+
+	/**
+	 * Reads the summary of a simulation
+	 * @param in the input stream
+	 * @return the summary
+	 * @throws IOException if the summary cannot be read
+	 */
+	static SimulationSummary readSummary(DataInputStream in) throws IOException {
+		return new SimulationSummary(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+	}
+
+
+	/**
+	 * Writes a string of arbitrary length
+	 * @param out the output stream
+	 * @param str the string
+	 * @throws IOException if the string cannot be written
+	 */
+	static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	/**
+	 * Reads a string of arbitrary length
+	 * @param in the input stream
+	 * @return the string
+	 * @throws IOException if the string cannot be read
+	 */
+	static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
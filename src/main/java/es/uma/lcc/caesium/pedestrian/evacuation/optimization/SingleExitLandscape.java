@@ -0,0 +1,195 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
+
+/**
+ * Fitness landscape of the layouts with a single exit: the fitness of adding one
+ * exit at each position of a fine grid along the perimeter (with the precision of
+ * exit locations), as evaluated by the problem (see {@link ExitEvacuationProblem#evaluate(List)}),
+ * so adaptive sampling and fidelity tiers apply as they would to the same layouts 
+ * during the search (solutions discarded by a coarse tier get an infinite fitness). 
+ * It is computed once per environment and simulation configuration (positions whose
+ * exit occupies the same cells are evaluated once, and different layouts are evaluated
+ * concurrently) and stored in a binary file (little endian), with a header identifying
+ * the environment, the simulation configuration, the fitness estimator (number of 
+ * simulations, adaptive sampling and fidelity tiers), the exit width and the grid, 
+ * followed by the fitness of each position (float64). If the file exists but does not
+ * match the problem, the landscape is computed again and the file is overwritten.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class SingleExitLandscape {
+	/**
+	 * magic number identifying the file format
+	 */
+	private static final long MAGIC = 0x32444e4c534f4550L;     // "PEOSLND2"
+	/**
+	 * suffix of the landscape file (appended to the basename of the environment file)
+	 */
+	public static final String SUFFIX = "-landscape.bin";
+	/**
+	 * precision of exit locations (i.e., step of the grid)
+	 */
+	private static final double PRECISION = 0.1;
+	/**
+	 * size of the header of the file
+	 */
+	private static final int HEADER_BYTES = 4 * Long.BYTES + Integer.BYTES + 2 * Double.BYTES;
+	/**
+	 * index of perimeter positions
+	 */
+	private final PerimeterCellIndex index;
+	/**
+	 * length of the perimeter
+	 */
+	private final double perimeterLength;
+	/**
+	 * fitness of a single exit at each position
+	 */
+	private final double[] fitness;
+
+
+	/**
+	 * Creates the landscape
+	 * @param index index of perimeter positions
+	 * @param perimeterLength length of the perimeter
+	 * @param fitness fitness of a single exit at each position
+	 */
+	private SingleExitLandscape(PerimeterCellIndex index, double perimeterLength, double[] fitness) {
+		this.index = index;
+		this.perimeterLength = perimeterLength;
+		this.fitness = fitness;
+	}
+
+
+	/**
+	 * Returns the landscape of a problem, reading it from a file if it exists and
+	 * matches the problem, or computing it and writing it to the file otherwise.
+	 * @param eep the evacuation problem
+	 * @param path the landscape file
+	 * @return the landscape
+	 * @throws IOException if the file cannot be read/written
+	 */
+	public static SingleExitLandscape of(ExitEvacuationProblem eep, Path path) throws IOException {
+		PerimeterCellIndex index = eep.getPerimeterCellIndex(PRECISION);
+		ByteBuffer header = header(eep, index.getNumPositions());
+		if (Files.exists(path) && (Files.size(path) == HEADER_BYTES + (long) Double.BYTES * index.getNumPositions())) {
+			ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+			if (contents.slice(0, HEADER_BYTES).equals(header)) {
+				double[] fitness = new double[index.getNumPositions()];
+				contents.position(HEADER_BYTES).asDoubleBuffer().get(fitness);
+				return new SingleExitLandscape(index, eep.getPerimeterLength(), fitness);
+			}
+		}
+
+		System.out.println("Computing single-exit landscape (" + index.getNumPositions() + " positions) into " + path);
+		SingleExitLandscape landscape = compute(eep, index);
+		ByteBuffer contents = ByteBuffer.allocate(HEADER_BYTES + Double.BYTES * landscape.fitness.length).order(ByteOrder.LITTLE_ENDIAN);
+		contents.put(header);
+		contents.asDoubleBuffer().put(landscape.fitness);
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tmp, contents.array());
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return landscape;
+	}
+
+
+	/**
+	 * Computes the landscape of a problem
+	 * @param eep the evacuation problem
+	 * @param index index of perimeter positions
+	 * @return the landscape
+	 */
+	private static SingleExitLandscape compute(ExitEvacuationProblem eep, PerimeterCellIndex index) {
+		int n = index.getNumPositions();
+		// positions whose exit occupies the same cells lead to the same scenario
+		Map<ExitLayoutKey, List<Integer>> groups = new LinkedHashMap<ExitLayoutKey, List<Integer>>();
+		for (int p = 0; p < n; p++) {
+			groups.computeIfAbsent(index.key(new int[] {p}), k -> new ArrayList<Integer>()).add(p);
+		}
+		Double2AccessDecoder decoder = new Double2AccessDecoder(eep);
+		var executor = eep.getExecutor();
+		List<Future<FitnessEvaluation>> futures = new ArrayList<Future<FitnessEvaluation>>(groups.size());
+		List<List<Access>> layouts = new ArrayList<List<Access>>(groups.size());
+		for (List<Integer> positions: groups.values()) {
+			List<Access> accesses = new ArrayList<Access>(decoder.getMaxSegments());
+			decoder.decodeAccess(positions.get(0) * PRECISION, 0, 0, accesses);
+			layouts.add(accesses);
+			futures.add((executor == null) ? null : executor.submit(() -> eep.evaluate(accesses)));
+		}
+		double[] fitness = new double[n];
+		try {
+			int g = 0;
+			for (List<Integer> positions: groups.values()) {
+				Future<FitnessEvaluation> future = futures.get(g);
+				FitnessEvaluation result = (future == null) ? eep.evaluate(layouts.get(g)) : future.get();
+				double f = result.censored() ? Double.POSITIVE_INFINITY : result.fitness();
+				for (int p: positions) {
+					fitness[p] = f;
+				}
+				g++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Landscape computation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Landscape computation failed", e.getCause());
+		}
+		return new SingleExitLandscape(index, eep.getPerimeterLength(), fitness);
+	}
+
+
+	/**
+	 * Builds the header of the landscape file of a problem
+	 * @param eep the evacuation problem
+	 * @param numPositions number of positions of the grid
+	 * @return the header
+	 */
+	private static ByteBuffer header(ExitEvacuationProblem eep, int numPositions) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(MAGIC)
+			  .putLong(SimulationStore.hash(eep.getEnvironment().jsonPrettyPrinted()))
+			  .putLong(SimulationStore.hash(eep.getSimulationConfiguration().fingerprint()))
+			  .putLong(SimulationStore.hash(eep.getSimulationConfiguration().estimatorFingerprint()))
+			  .putDouble(eep.getExitWidth())
+			  .putDouble(PRECISION)
+			  .putInt(numPositions);
+		return header.flip();
+	}
+
+
+	/**
+	 * Returns the number of positions of the grid
+	 * @return the number of positions of the grid
+	 */
+	public int getNumPositions() {
+		return fitness.length;
+	}
+
+
+	/**
+	 * Returns the fitness of a single exit at a given location, provided the exit occupies
+	 * the same cells as the exit at the closest position of the grid (so the landscape 
+	 * holds the fitness of the very same scenario)
+	 * @param location the location of the exit (normalized to [0,1] along the perimeter)
+	 * @return the fitness of the exit, or NaN if it is not in the landscape
+	 */
+	public double getFitness(double location) {
+		double meters = location * perimeterLength;
+		int position = index.position(meters);
+		return index.sameCells(meters, position) ? fitness[position] : Double.NaN;
+	}
+}
@@ -0,0 +1,465 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of the solutions recorded in a statistics file (as dumped by the optimizers:
+ * a json array with one object per run, whose {@code rundata} array contains an object
+ * per island with an {@code isols} object holding the {@code evals}, {@code fitness}
+ * and {@code genome} of each improvement). The file is scanned as a stream (without
+ * building the json tree): evaluations and fitness values are kept, and genomes are
+ * only located (by their offset in the file) so that just the selected ones are read.
+ * The index is saved to a sidecar file (the statistics file with extension {@code .idx})
+ * and reused while the statistics file is not modified. If the sidecar file cannot be
+ * written (e.g., in a read-only directory), the index is just kept in memory.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class StatsIndex {
+	/**
+	 * extension of the sidecar index file
+	 */
+	private static final String INDEX_EXTENSION = ".idx";
+	/**
+	 * magic number of index files
+	 */
+	private static final int MAGIC = 0x53494458;
+
+	/**
+	 * Improvements recorded by an island in a run
+	 * @param evals number of evaluations at which each improvement was found
+	 * @param fitness fitness of each improvement
+	 * @param genomeOffsets offset in the statistics file of the genome of each improvement
+	 */
+	private record Island(long[] evals, double[] fitness, long[] genomeOffsets) {}
+
+	/**
+	 * Best solution of a run
+	 * @param island index of the island where the solution was found
+	 * @param evals number of evaluations at which the solution was found
+	 * @param fitness fitness of the solution
+	 * @param genome the solution
+	 */
+	public record Best(int island, long evals, double fitness, List<Double> genome) {}
+
+	/**
+	 * the statistics file
+	 */
+	private final Path stats;
+	/**
+	 * improvements recorded by each island in each run
+	 */
+	private final List<List<Island>> runs;
+
+
+	/**
+	 * Creates an index
+	 * @param stats the statistics file
+	 * @param runs improvements recorded by each island in each run
+	 */
+	private StatsIndex(Path stats, List<List<Island>> runs) {
+		this.stats = stats;
+		this.runs = runs;
+	}
+
+
+	/**
+	 * Returns the index of a statistics file, reading it from its sidecar file if it
+	 * is up to date, or scanning the statistics file (and saving the sidecar file, if 
+	 * possible) otherwise.
+	 * @param filename the name of the statistics file
+	 * @return the index of the statistics file
+	 * @throws IOException if the statistics file cannot be read or is not properly formatted
+	 */
+	public static StatsIndex of(String filename) throws IOException {
+		Path stats = Path.of(filename);
+		Path sidecar = Path.of(filename + INDEX_EXTENSION);
+		long size = Files.size(stats);
+		long modified = Files.getLastModifiedTime(stats).toMillis();
+		if (Files.exists(sidecar)) {
+			StatsIndex index = read(stats, sidecar, size, modified);
+			if (index != null)
+				return index;
+		}
+		StatsIndex index = new StatsIndex(stats, new Scanner(stats).runs());
+		try {
+			index.write(sidecar, size, modified);
+		} catch (IOException e) {
+			// the sidecar file is just a cache: go on with the index in memory
+			System.err.println("Cannot save index " + sidecar + ": " + e);
+		}
+		return index;
+	}
+
+
+	/**
+	 * Returns the number of runs
+	 * @return the number of runs
+	 */
+	public int getNumRuns() {
+		return runs.size();
+	}
+
+
+	/**
+	 * Returns the best solution found in a run within a budget of evaluations: for each
+	 * island, the last improvement found within the budget is considered, and the best
+	 * one (the first one in case of ties) is returned.
+	 * @param run index of the run
+	 * @param maxevals the budget of evaluations
+	 * @return the best solution of the run
+	 * @throws IOException if the genome cannot be read from the statistics file
+	 */
+	public Best best(int run, long maxevals) throws IOException {
+		List<Island> islands = runs.get(run);
+		double best = Double.POSITIVE_INFINITY;
+		int index = 0;
+		int row = 0;
+		for (int j = 0; j < islands.size(); j++) {
+			Island island = islands.get(j);
+			for (int k = island.evals().length - 1; k >= 0; k--) {
+				if (island.evals()[k] <= maxevals) {
+					if (island.fitness()[k] < best) {
+						best = island.fitness()[k];
+						index = j;
+						row = k;
+					}
+					break;
+				}
+			}
+		}
+		Island island = islands.get(index);
+		return new Best(index, island.evals()[row], island.fitness()[row], readGenome(island.genomeOffsets()[row]));
+	}
+
+
+	/**
+	 * Reads a genome from the statistics file
+	 * @param offset offset of the genome in the statistics file
+	 * @return the genome
+	 * @throws IOException if the genome cannot be read
+	 */
+	private List<Double> readGenome(long offset) throws IOException {
+		try (FileChannel channel = FileChannel.open(stats, StandardOpenOption.READ)) {
+			Scanner scanner = new Scanner(channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset));
+			List<Double> genome = new ArrayList<Double>();
+			scanner.expect('[');
+			if (!scanner.next(']')) {
+				do {
+					genome.add(scanner.number());
+				} while (scanner.next(','));
+				scanner.expect(']');
+			}
+			return genome;
+		}
+	}
+
+
+	/**
+	 * Reads an index from a sidecar file
+	 * @param stats the statistics file
+	 * @param sidecar the sidecar file
+	 * @param size size of the statistics file
+	 * @param modified last modification time of the statistics file
+	 * @return the index (null if it is out of date or cannot be read)
+	 */
+	private static StatsIndex read(Path stats, Path sidecar, long size, long modified) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+			if ((in.readInt() != MAGIC) || (in.readLong() != size) || (in.readLong() != modified))
+				return null;
+			int numRuns = in.readInt();
+			List<List<Island>> runs = new ArrayList<List<Island>>(numRuns);
+			for (int i = 0; i < numRuns; i++) {
+				int numIslands = in.readInt();
+				List<Island> islands = new ArrayList<Island>(numIslands);
+				for (int j = 0; j < numIslands; j++) {
+					int n = in.readInt();
+					Island island = new Island(new long[n], new double[n], new long[n]);
+					for (int k = 0; k < n; k++) {
+						island.evals()[k] = in.readLong();
+						island.fitness()[k] = in.readDouble();
+						island.genomeOffsets()[k] = in.readLong();
+					}
+					islands.add(island);
+				}
+				runs.add(islands);
+			}
+			return new StatsIndex(stats, runs);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Writes the index to a sidecar file
+	 * @param sidecar the sidecar file
+	 * @param size size of the statistics file
+	 * @param modified last modification time of the statistics file
+	 * @throws IOException if the sidecar file cannot be written
+	 */
+	private void write(Path sidecar, long size, long modified) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(sidecar)))) {
+			out.writeInt(MAGIC);
+			out.writeLong(size);
+			out.writeLong(modified);
+			out.writeInt(runs.size());
+			for (List<Island> islands: runs) {
+				out.writeInt(islands.size());
+				for (Island island: islands) {
+					int n = island.evals().length;
+					out.writeInt(n);
+					for (int k = 0; k < n; k++) {
+						out.writeLong(island.evals()[k]);
+						out.writeDouble(island.fitness()[k]);
+						out.writeLong(island.genomeOffsets()[k]);
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Minimal streaming scanner of json text over a memory-mapped file
+	 */
+	private static final class Scanner {
+		/**
+		 * the mapped text
+		 */
+		private final MappedByteBuffer text;
+
+		/**
+		 * Creates a scanner of a whole file
+		 * @param file the file
+		 * @throws IOException if the file cannot be mapped (e.g., if it exceeds 2GB)
+		 */
+		Scanner(Path file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				text = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		}
+
+		/**
+		 * Creates a scanner of a mapped region
+		 * @param text the mapped region
+		 */
+		Scanner(MappedByteBuffer text) {
+			this.text = text;
+		}
+
+		/**
+		 * Scans a statistics file
+		 * @return improvements recorded by each island in each run
+		 * @throws IOException if the file is not properly formatted
+		 */
+		List<List<Island>> runs() throws IOException {
+			List<List<Island>> runs = new ArrayList<List<Island>>();
+			expect('[');
+			if (next(']'))
+				return runs;
+			do {
+				List<Island> islands = new ArrayList<Island>();
+				expect('{');
+				if (!next('}')) {
+					do {
+						if (key().equals("rundata")) {
+							expect('[');
+							if (!next(']')) {
+								do {
+									islands.add(island());
+								} while (next(','));
+								expect(']');
+							}
+						}
+						else {
+							skipValue();
+						}
+					} while (next(','));
+					expect('}');
+				}
+				runs.add(islands);
+			} while (next(','));
+			expect(']');
+			return runs;
+		}
+
+		/**
+		 * Scans the data of an island
+		 * @return the improvements recorded by the island
+		 * @throws IOException if the text is not properly formatted
+		 */
+		private Island island() throws IOException {
+			List<Long> evals = new ArrayList<Long>();
+			List<Double> fitness = new ArrayList<Double>();
+			List<Long> genomes = new ArrayList<Long>();
+			expect('{');
+			if (!next('}')) {
+				do {
+					if (key().equals("isols")) {
+						expect('{');
+						if (!next('}')) {
+							do {
+								String key = key();
+								if (!next('[')) {
+									skipValue();
+								}
+								else if (!next(']')) {
+									do {
+										switch (key) {
+										case "evals" -> evals.add((long)number());
+										case "fitness" -> fitness.add(number());
+										case "genome" -> {
+											skipWhitespace();
+											genomes.add((long)text.position());
+											skipValue();
+										}
+										default -> skipValue();
+										}
+									} while (next(','));
+									expect(']');
+								}
+							} while (next(','));
+							expect('}');
+						}
+					}
+					else {
+						skipValue();
+					}
+				} while (next(','));
+				expect('}');
+			}
+			int n = evals.size();
+			if ((fitness.size() != n) || (genomes.size() != n))
+				throw new IOException("Inconsistent isols data at offset " + text.position());
+			Island island = new Island(new long[n], new double[n], new long[n]);
+			for (int k = 0; k < n; k++) {
+				island.evals()[k] = evals.get(k);
+				island.fitness()[k] = fitness.get(k);
+				island.genomeOffsets()[k] = genomes.get(k);
+			}
+			return island;
+		}
+
+		/**
+		 * Skips whitespace
+		 */
+		private void skipWhitespace() {
+			while (text.hasRemaining()) {
+				byte c = text.get(text.position());
+				if ((c != ' ') && (c != '\n') && (c != '\r') && (c != '\t'))
+					return;
+				text.get();
+			}
+		}
+
+		/**
+		 * Consumes a character if it is the next one (after whitespace)
+		 * @param c the character
+		 * @return true if the character was consumed
+		 */
+		boolean next(char c) {
+			skipWhitespace();
+			if (text.hasRemaining() && (text.get(text.position()) == c)) {
+				text.get();
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Consumes a character that must be the next one (after whitespace)
+		 * @param c the character
+		 * @throws IOException if the next character is a different one
+		 */
+		void expect(char c) throws IOException {
+			if (!next(c))
+				throw new IOException("Expected '" + c + "' at offset " + text.position());
+		}
+
+		/**
+		 * Reads a key of an object (and the colon that follows it)
+		 * @return the key
+		 * @throws IOException if the text is not properly formatted
+		 */
+		private String key() throws IOException {
+			expect('"');
+			StringBuilder key = new StringBuilder();
+			byte c;
+			while ((c = text.get()) != '"') {
+				if (c == '\\')
+					c = text.get();
+				key.append((char)c);
+			}
+			expect(':');
+			return key.toString();
+		}
+
+		/**
+		 * Reads a number
+		 * @return the number
+		 * @throws IOException if the text is not a number
+		 */
+		double number() throws IOException {
+			skipWhitespace();
+			StringBuilder number = new StringBuilder();
+			while (text.hasRemaining()) {
+				byte c = text.get(text.position());
+				if (((c < '0') || (c > '9')) && (c != '-') && (c != '+') && (c != '.') && (c != 'e') && (c != 'E'))
+					break;
+				number.append((char)text.get());
+			}
+			try {
+				return Double.parseDouble(number.toString());
+			} catch (NumberFormatException e) {
+				throw new IOException("Expected a number at offset " + text.position());
+			}
+		}
+
+		/**
+		 * Skips a value (of any type)
+		 * @throws IOException if the text is not properly formatted
+		 */
+		private void skipValue() throws IOException {
+			skipWhitespace();
+			int depth = 0;
+			do {
+				if (!text.hasRemaining())
+					throw new IOException("Unexpected end of file");
+				byte c = text.get();
+				switch (c) {
+				case '[', '{' -> depth++;
+				case ']', '}' -> depth--;
+				case '"' -> {
+					while ((c = text.get()) != '"') {
+						if (c == '\\')
+							text.get();
+					}
+				}
+				default -> {
+					if (depth == 0) {
+						// scalar at top level: consume until a delimiter
+						while (text.hasRemaining()) {
+							byte d = text.get(text.position());
+							if ((d == ',') || (d == ']') || (d == '}') || (d == ' ') || (d == '\n') || (d == '\r') || (d == '\t'))
+								break;
+							text.get();
+						}
+					}
+				}
+				}
+			} while (depth > 0);
+		}
+	}
+}
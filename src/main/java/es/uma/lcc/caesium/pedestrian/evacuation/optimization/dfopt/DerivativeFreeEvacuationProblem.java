@@ -4,14 +4,22 @@ import java.util.ArrayList;
 import java.util.List;
 
 import es.uma.lcc.caesium.dfopt.base.DerivativeFreeObjectiveFunction;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.BoundedCache;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.Double2AccessDecoder;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitLayoutKey;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.FitnessEvaluation;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.PerimeterCellIndex;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea.SurrogateModel;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 
 /**
- * Evacuation Problem for derivative-free optimization
+ * Evacuation Problem for derivative-free optimization. Solutions are evaluated one
+ * at a time, as requested by the derivative-free methods (which do not expose the
+ * points of an iteration as a batch), and evaluations are memoized; the replicas of
+ * an evaluation run in parallel on worker processes if they are configured.
  * @author ccottap
- * @version 1.1
+ * @version 1.4
  */
 public class DerivativeFreeEvacuationProblem extends DerivativeFreeObjectiveFunction {
 	/**
@@ -30,6 +38,26 @@ public class DerivativeFreeEvacuationProblem extends DerivativeFreeObjectiveFunc
 	 * decoder of accesses
 	 */
 	private Double2AccessDecoder decoder;
+	/**
+	 * index of the cells of the automaton occupied by exits at each rounded-off location
+	 */
+	private final PerimeterCellIndex cellIndex;
+	/**
+	 * cache of fitness evaluations, indexed by the set of cells occupied by exits
+	 */
+	private BoundedCache<ExitLayoutKey, Double> cache;
+	/**
+	 * surrogate model used to pre-screen solutions (null if not configured)
+	 */
+	private final SurrogateModel surrogate;
+	/**
+	 * default maximum number of entries in the cache of fitness evaluations
+	 */
+	private static final int DEFAULT_CACHE_CAPACITY = 100000;
+	/**
+	 * number of independently locked segments of the cache
+	 */
+	private static final int CACHE_SEGMENTS = 64;
 	/**
 	 * granularity in the location of exits
 	 */
@@ -49,14 +77,110 @@ public class DerivativeFreeEvacuationProblem extends DerivativeFreeObjectiveFunc
 		perimeterLength = eep.getPerimeterLength();
 		this.eep = eep;
 		decoder = new Double2AccessDecoder(eep);
+		cellIndex = eep.getPerimeterCellIndex(EXIT_PRECISION);
+		surrogate = SurrogateModel.fromConfiguration(eep.getSimulationConfiguration());
+		setCacheCapacity(DEFAULT_CACHE_CAPACITY);
+	}
+	
+	
+	/**
+	 * Sets the maximum number of entries in the cache of fitness evaluations 
+	 * (the cache is emptied)
+	 * @param capacity the maximum number of entries in the cache
+	 */
+	public void setCacheCapacity(int capacity) {
+		cache = new BoundedCache<ExitLayoutKey, Double>(capacity, CACHE_SEGMENTS);
+	}
+	
+	
+	/**
+	 * Prepares the function for a new run: the cache of fitness evaluations and the 
+	 * surrogate model are emptied, so that no run reuses the simulations of a previous one
+	 */
+	public void newRun() {
+		cache.clear();
+		if (surrogate != null)
+			surrogate.reset();
+	}
+	
+	
+	/**
+	 * Returns the cache of fitness evaluations of the current run
+	 * @return the cache of fitness evaluations (with hit/miss counters)
+	 */
+	public BoundedCache<ExitLayoutKey, Double> getCache() {
+		return cache;
 	}
 	
 	
+	/**
+	 * Returns the surrogate model used to pre-screen solutions in the current run
+	 * @return the surrogate model (null if not configured)
+	 */
+	public SurrogateModel getSurrogate() {
+		return surrogate;
+	}
+	
 	
+	/**
+	 * Evaluates a solution. If a surrogate model is configured, solutions whose 
+	 * predicted fitness is unpromising are not simulated, and get the predicted fitness 
+	 * instead. Only complete evaluations are cached and used to train the model (censored
+	 * ones, such as estimates from coarse fidelity tiers, are not the fitness of the layout).
+	 * @param sol a list of exit locations
+	 * @return the fitness of the solution
+	 */
 	@Override
 	protected double _evaluate(List<Double> sol) {
 		assert sol.size() == numExits;
-		return eep.fitness (eep.simulate (decode (sol)));
+		ExitLayoutKey key = solutionToKey (sol);
+		Double val = cache.get(key);
+		if (val == null) {
+			double[] locations = (surrogate == null) ? null : locations(sol);
+			if (surrogate != null)
+				val = surrogate.screen(locations);
+			if (val == null) {
+				FitnessEvaluation result = eep.evaluate (decode (sol));
+				val = result.fitness();
+				// censored evaluations (lower bounds or estimates) are not the fitness of the layout
+				if (!result.censored()) {
+					cache.put(key, val);
+					if (surrogate != null)
+						surrogate.add(locations, val);
+				}
+			}
+		}
+		return val;
+	}
+	
+	
+	/**
+	 * Returns the exit locations of a solution, normalized to [0,1)
+	 * @param sol a list of exit locations
+	 * @return the normalized exit locations
+	 */
+	private double[] locations (List<Double> sol) {
+		double[] locations = new double[numExits];
+		for (int exit=0; exit<numExits; exit++) {
+			double x = sol.get(exit);
+			locations[exit] = x - Math.floor(x);
+		}
+		return locations;
+	}
+	
+	/**
+	 * Transforms a solution into a key made of the cells occupied by its rounded-off 
+	 * exits (because the order of exits is irrelevant when it comes to compare solutions,
+	 * and so are differences in location that do not change the scenario).
+	 * @param sol a list of exit locations
+	 * @return the key of the solution
+	 */
+	private ExitLayoutKey solutionToKey (List<Double> sol) {
+		int[] positions = new int[numExits];
+		for (int exit=0; exit<numExits; exit++) {
+			positions[exit] = cellIndex.position(sol.get(exit) * perimeterLength);
+		}
+		return cellIndex.key(positions);
 	}
 	
 	/**
@@ -70,7 +194,7 @@ public class DerivativeFreeEvacuationProblem extends DerivativeFreeObjectiveFunc
 		for (int exit=0; exit<numExits; exit++) {
 			// locations have a precision of 1cm
 			double location = roundLocation(sol, exit);
-			exits.addAll(decoder.decodeAccess(location, exit, id));
+			decoder.decodeAccess(location, exit, id, exits);
 			id = exits.size();
 		}
 		return exits;
@@ -4,12 +4,15 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 
-import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonException;
 import com.github.cliftonlabs.json_simple.JsonObject;
 import com.github.cliftonlabs.json_simple.Jsoner;
 
+import es.uma.lcc.caesium.dfopt.base.DerivativeFreeConfiguration;
+import es.uma.lcc.caesium.dfopt.hookejeeves.HookeJeevesConfiguration;
+import es.uma.lcc.caesium.dfopt.neldermead.NelderMeadConfiguration;
 import es.uma.lcc.caesium.ea.util.JsonUtil;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.BatchScheduler;
 
 
 /**
@@ -33,35 +36,19 @@ public class RunBatchDFO {
 		}
 		// reads batch configuration
 		JsonObject conf = (JsonObject) Jsoner.deserialize(new FileReader(args[0]));
-		String algorithmConf = (String) conf.get("algorithm");
-		int numExits = JsonUtil.getInt(conf, "exits");
-		String simulationConf = (String) conf.get("simulation");
-		JsonArray experiments = (JsonArray) conf.get("experiments");
-
-		String[] params = new String[4];
-		params[0] = algorithmConf;
-		params[2] = String.valueOf(numExits);
-		params[3] = simulationConf;
-		
-		for (Object o: experiments) {
-			JsonObject exp = (JsonObject)o;
-			String environment = (String) exp.get("basename");
-			int num = JsonUtil.getInt(exp, "num");
-			int first = 1;
-			if (exp.containsKey("start")) {
-				first = JsonUtil.getInt(exp, "start");
-			}
-
-			for (int i=first; i<=num; i++) {
-				params[1] = environment + "-" + String.valueOf(i);
-				System.out.println("--------------------------------------------------------------------------------");
-				System.out.println("Running " + params[0] + " " + params[1] + " " + params[2] + " " + params[3]);
-				System.out.println("--------------------------------------------------------------------------------");
-				RunDFO4PedestrianEvacuation.main(params);
-			}
-
+		int cores = Runtime.getRuntime().availableProcessors();
+		if (conf.containsKey("cores")) {
+			cores = JsonUtil.getInt(conf, "cores");
 		}
-
+		// each run of an experiment is a separate job
+		String algorithm = (String) conf.get("algorithm");
+		JsonObject jo;
+		try (FileReader reader = new FileReader(algorithm + ".json")) {
+			jo = (JsonObject) Jsoner.deserialize(reader);
+		}
+		DerivativeFreeConfiguration algorithmConf = algorithm.toLowerCase().contains("neldermead") ? 
+				new NelderMeadConfiguration(jo) : new HookeJeevesConfiguration(jo);
+		new BatchScheduler(args[0], RunDFO4PedestrianEvacuation.class, cores, algorithmConf.getNumruns()).run(conf);
 	}
 
 }
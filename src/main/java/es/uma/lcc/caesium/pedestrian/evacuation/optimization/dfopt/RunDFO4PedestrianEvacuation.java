@@ -4,6 +4,8 @@ package es.uma.lcc.caesium.pedestrian.evacuation.optimization.dfopt;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 
 import com.github.cliftonlabs.json_simple.JsonException;
@@ -18,7 +20,9 @@ import es.uma.lcc.caesium.dfopt.hookejeeves.HookeJeevesConfiguration;
 import es.uma.lcc.caesium.dfopt.neldermead.NelderMead;
 import es.uma.lcc.caesium.dfopt.neldermead.NelderMeadConfiguration;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.RobustnessAnalysis;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Environment;
 
 
@@ -55,7 +59,8 @@ public class RunDFO4PedestrianEvacuation {
 	public static void main(String[] args) throws IOException, JsonException {
 
 		if (args.length<4) {
-			System.out.println ("Required parameters: <configuration-name> <environment-name> <num-exits> <simulation-configuration>");
+			System.out.println ("Required parameters: <configuration-name> <environment-name> <num-exits> <simulation-configuration> [<run>]");
+			System.out.println ("(if a run index is given, only that run is performed, and \"-run<run>\" is appended to the names of the output files)");
 			System.exit(-1);
 		}
 		else {
@@ -92,39 +97,36 @@ public class RunDFO4PedestrianEvacuation {
 			DerivativeFreeEvacuationProblem nmep = new DerivativeFreeEvacuationProblem(eep);
 			myNM.setObjectiveFunction(nmep);
 					    
-			for (int i=0; i<conf.getNumruns(); i++) {
+			// a single run (e.g., a job of a batch) if its index is given
+			int firstRun = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+			int lastRun = (args.length > 4) ? firstRun + 1 : conf.getNumruns();
+			String outputName = args[1] + "-" + args[2] + ((args.length > 4) ? "-run" + firstRun : "");
+			for (int i=firstRun; i<lastRun; i++) {
+				nmep.newRun();
 				myNM.run();
 				System.out.println ("Run " + i + ": " + 
-						String.format("%.2f", myNM.getStatistics().getTime(i)) + "s\t" +
-						myNM.getStatistics().getBest(i).value());
+						String.format("%.2f", myNM.getStatistics().getTime(i - firstRun)) + "s\t" +
+						myNM.getStatistics().getBest(i - firstRun).value());
 			}
-			PrintWriter file = new PrintWriter(args[0] + STATS_FILENAME + args[1] + "-" + args[2] + ".json");
+			System.out.print(eep.getFidelityReport());
+			PrintWriter file = new PrintWriter(args[0] + STATS_FILENAME + outputName + ".json");
 			file.print(myNM.getStatistics().toJSON().toJson());
 			file.close();
 			
 			// Analyze the best solutions more in depth
-			PrintWriter solsim = new PrintWriter(args[0] + SIMULATIONS_FILENAME + args[1] + "-" + args[2] + ".csv");
-			PrintWriter sols = new PrintWriter(args[0] + SOLUTIONS_FILENAME + args[1] + "-" + args[2] + ".txt");
-
-			final int NUMSIMS = 1000;
-			solsim.print("run");
-			for (int j=0; j<NUMSIMS; j++)
-				solsim.print(",sim" + j);
-			solsim.println();
-			for (int i=0; i<conf.getNumruns(); i++) {
-				solsim.print(i);
+			PrintWriter sols = new PrintWriter(args[0] + SOLUTIONS_FILENAME + outputName + ".txt");
+			List<List<Access>> layouts = new ArrayList<List<Access>>(lastRun - firstRun);
+			for (int i=0; i<lastRun-firstRun; i++) {
 				var sol = myNM.getStatistics().getBest(i).point();
-				var summaries = eep.simulate(nmep.decode(sol), NUMSIMS); 
-				for (int j=0; j<NUMSIMS; j++)
-					solsim.print("," + eep.fitness(summaries.get(j)));
-				solsim.println();
+				layouts.add(nmep.decode(sol));
 				for (int j=0; j<sol.size(); j++) {
 					sols.print(sol.get(j) + "\t");
 				}
 				sols.println();
 			}
-			solsim.close();
 			sols.close();
+			new RobustnessAnalysis(eep).run(args[0] + SIMULATIONS_FILENAME + outputName + ".csv", layouts);
+			eep.close();
 		}
 
 	}
@@ -6,7 +6,6 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonException;
 import com.github.cliftonlabs.json_simple.JsonObject;
 import com.github.cliftonlabs.json_simple.Jsoner;
@@ -15,7 +14,10 @@ import es.uma.lcc.caesium.dfopt.base.DerivativeFreeConfiguration;
 import es.uma.lcc.caesium.dfopt.hookejeeves.HookeJeevesConfiguration;
 import es.uma.lcc.caesium.dfopt.neldermead.NelderMeadConfiguration;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.RobustnessAnalysis;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.StatsIndex;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Environment;
 
 /**
@@ -85,70 +87,31 @@ public class RunTestAnalysis {
 
 			System.out.println(simulationConf);
 
-			FileReader statsFile = new FileReader(args[0] + STATS_FILENAME + args[1] + "-" + args[2] + ".json");
-			JsonArray stats = (JsonArray) Jsoner.deserialize(statsFile);
-			statsFile.close();
+			StatsIndex stats = StatsIndex.of(args[0] + STATS_FILENAME + args[1] + "-" + args[2] + ".json");
 
 			List<List<Double>> solutions = new ArrayList<List<Double>> (numruns);
 			for (int i=0; i<numruns; i++) {
-				JsonArray rundata = (JsonArray) ((JsonObject)(stats.get(i))).get("rundata");
-				int numIslands = rundata.size();
-				double best = Double.POSITIVE_INFINITY;
-				int index = 0;
-				int row = 0;
-				for (int j=0; j<numIslands; j++) {
-					JsonObject isols = (JsonObject) ((JsonObject) rundata.get(j)).get("isols");
-					JsonArray evals = (JsonArray) isols.get("evals");
-					JsonArray fitnesses = (JsonArray) isols.get("fitness");
-					for (int k=evals.size()-1; k>=0; k--) {
-						long ev = evals.getLong(k);
-						if (ev <= maxevals) {
-							double fitness = fitnesses.getDouble(k);
-							if (fitness < best) {
-								best = fitness;
-								index = j;
-								row = k;
-							}
-							break;
-						}
-					}
-				}
-				JsonObject isols = (JsonObject) ((JsonObject) rundata.get(index)).get("isols");
-				JsonArray evals = (JsonArray) isols.get("evals");
-				JsonArray genomes = (JsonArray) isols.get("genome");
-				JsonArray fitnesses = (JsonArray) isols.get("fitness");
-				System.out.println("Run #" + i + ": best solution from #" + index + " at evals=" + evals.getLong(row) + " with fitness=" + fitnesses.getDouble(row));
-				JsonArray genome = (JsonArray) genomes.get(row);
-				List<Double> sol = new ArrayList<Double>(numExits);
-				for (int l=0; l<numExits; l++) {
-					sol.add(genome.getDouble(l));
-				}
+				StatsIndex.Best best = stats.best(i, maxevals);
+				System.out.println("Run #" + i + ": best solution from #" + best.island() + " at evals=" + best.evals() + " with fitness=" + best.fitness());
+				List<Double> sol = new ArrayList<Double>(best.genome().subList(0, numExits));
 				System.out.println(sol);
 				solutions.add(sol);
 			}
 
 			// Analyze the best solutions more in depth
-			PrintWriter solsim = new PrintWriter(args[0] + SIMULATIONS_FILENAME + args[1] + "-" + args[2] + ".csv");
 			PrintWriter sols = new PrintWriter(args[0] + SOLUTIONS_FILENAME + args[1] + "-" + args[2] + ".txt");
-			final int NUMSIMS = 1000;
-			solsim.print("run");
-			for (int j=0; j<NUMSIMS; j++)
-				solsim.print(",sim" + j);
-			solsim.println();
+			List<List<Access>> layouts = new ArrayList<List<Access>>(numruns);
 			for (int i=0; i<numruns; i++) {
-				solsim.print(i);
 				List<Double> sol = solutions.get(i);
-				var summaries = eep.simulate(nmep.decode(sol), NUMSIMS); 
-				for (int j=0; j<NUMSIMS; j++)
-					solsim.print("," + eep.fitness(summaries.get(j)));
-				solsim.println();
+				layouts.add(nmep.decode(sol));
 				for (int j=0; j<sol.size(); j++) {
 					sols.print(sol.get(j) + "\t");
 				}
 				sols.println();
 			}
-			solsim.close();
 			sols.close();
+			new RobustnessAnalysis(eep).run(args[0] + SIMULATIONS_FILENAME + args[1] + "-" + args[2] + ".csv", layouts);
+			eep.close();
 		}
 
 	}
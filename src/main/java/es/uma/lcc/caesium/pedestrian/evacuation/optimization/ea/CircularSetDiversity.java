@@ -49,17 +49,7 @@ public class CircularSetDiversity implements DiversityMeasure {
 		for (int i=0; i<mu; i++ ) {
 			for (int j=0; j<mu; j++) {
 				if (i != j) {
-					for (int ki=0; ki<n; ki++) {
-						double d = Math.abs(matrix[i][ki] - matrix[j][0]);
-						double best = Math.min(d,  range - d);
-						for (int kj=1; kj<n; kj++) {
-							d = Math.abs(matrix[i][ki] - matrix[j][kj]);
-							double cand = Math.min(d,  range - d);
-							if (cand < best)
-								best = cand;
-						}
-						totalDist += best;
-					}
+					totalDist += distance(matrix[i], matrix[j], range);
 				}
 			}
 		}
@@ -68,5 +58,30 @@ public class CircularSetDiversity implements DiversityMeasure {
 		
 		return totalDist;
 	}
+	
+	/**
+	 * Computes the distance between two sets of values in a circular range, 
+	 * i.e., sum_{x in A} min_{y in B} min (|x-y|, R-|x-y|). Note that it is 
+	 * not symmetric.
+	 * @param a the first set
+	 * @param b the second set (non-empty)
+	 * @param range the range of the values
+	 * @return the distance from the first set to the second one
+	 */
+	public static double distance(double[] a, double[] b, double range) {
+		double dist = 0.0;
+		for (double x: a) {
+			double d = Math.abs(x - b[0]);
+			double best = Math.min(d,  range - d);
+			for (int k=1; k<b.length; k++) {
+				d = Math.abs(x - b[k]);
+				double cand = Math.min(d,  range - d);
+				if (cand < best)
+					best = cand;
+			}
+			dist += best;
+		}
+		return dist;
+	}
 
 }
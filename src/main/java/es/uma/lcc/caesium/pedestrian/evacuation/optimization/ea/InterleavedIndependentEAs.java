@@ -0,0 +1,315 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+import es.uma.lcc.caesium.ea.base.EvolutionaryAlgorithm;
+import es.uma.lcc.caesium.ea.base.Individual;
+import es.uma.lcc.caesium.ea.config.EAConfiguration;
+import es.uma.lcc.caesium.ea.statistics.DiversityMeasure;
+import es.uma.lcc.caesium.ea.statistics.EntropyDiversity;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+
+/**
+ * Independent EAs (one per island in the EA configuration) interleaved on the same
+ * evacuation problem. This is neither an island model (the EAs do not exchange
+ * individuals) nor an asynchronous one: each EA runs in its own thread, but the EAs
+ * take turns in a fixed round-robin order, passing the turn when they request an
+ * evaluation, so their random decisions (drawn from the generator shared by all of
+ * them) always happen in the same order and runs are reproducible. If simulations
+ * run in this JVM, an EA passes the turn after its evaluation, so the EAs proceed in
+ * lockstep and a slow evaluation delays all of them (replicas run in this JVM cannot
+ * overlap anyway, see {@link es.uma.lcc.caesium.pedestrian.evacuation.optimization.ReplicaRandom}).
+ * If simulations run on worker processes, an EA passes the turn before its evaluation,
+ * so the evaluations of different EAs overlap, although an EA still waits for its turn
+ * once its evaluation is done.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class InterleavedIndependentEAs {
+	/**
+	 * the EAs
+	 */
+	private final List<EvolutionaryAlgorithm> eas;
+	/**
+	 * the instance of the evacuation problem
+	 */
+	private final ExitEvacuationProblem eep;
+	/**
+	 * whether evaluations of different EAs overlap
+	 */
+	private final boolean overlap;
+	/**
+	 * index of the EA whose turn it is (-1 if all of them have finished)
+	 */
+	private int turn;
+	/**
+	 * whether each EA is still running in the current run
+	 */
+	private final boolean[] active;
+	/**
+	 * wall-clock time (in seconds) of each run
+	 */
+	private final List<Double> times;
+	/**
+	 * number of evaluations performed in each run
+	 */
+	private final List<Long> evaluations;
+	/**
+	 * offset between the seeds of consecutive EAs
+	 */
+	private static final long SEED_OFFSET = 1000003L;
+
+
+	/**
+	 * Creates the EAs
+	 * @param json the EA configuration (as found in the configuration file)
+	 * @param eep the evacuation problem
+	 * @throws JsonException if the configuration of an EA cannot be created
+	 */
+	public InterleavedIndependentEAs(JsonObject json, ExitEvacuationProblem eep) throws JsonException {
+		this.eep = eep;
+		overlap = eep.isDistributed();
+		eas = new ArrayList<EvolutionaryAlgorithm>();
+		for (Object island: (JsonArray)json.get("islands")) {
+			int copies = ((Number)((JsonObject)island).get("numislands")).intValue();
+			for (int i = 0; i < copies; i++) {
+				// configuration with a single island of this kind
+				JsonObject conf = (JsonObject) Jsoner.deserialize(json.toJson());
+				JsonObject single = (JsonObject) Jsoner.deserialize(((JsonObject)island).toJson());
+				single.put("numislands", new BigDecimal(1));
+				JsonArray list = new JsonArray();
+				list.add(single);
+				conf.put("islands", list);
+				EvolutionaryAlgorithm ea = new EvolutionaryAlgorithm(new EAConfiguration(conf));
+				ea.setVerbosityLevel(0);
+				ea.setObjectiveFunction(new TurnTakingObjectiveFunction(eas.size()));
+				eas.add(ea);
+			}
+		}
+		active = new boolean[eas.size()];
+		turn = -1;
+		times = new ArrayList<Double>();
+		evaluations = new ArrayList<Long>();
+	}
+
+
+	/**
+	 * Objective function of an EA, which passes the turn to the next EA on each evaluation
+	 */
+	private final class TurnTakingObjectiveFunction extends PerimetralExitOptimizationFunction {
+		/**
+		 * index of the EA
+		 */
+		private final int index;
+
+		/**
+		 * Creates the objective function of an EA
+		 * @param index index of the EA
+		 */
+		TurnTakingObjectiveFunction(int index) {
+			super(eep);
+			this.index = index;
+		}
+
+		@Override
+		protected double _evaluate(Individual ind) {
+			if (overlap)
+				passTurn(index);
+			double fitness = super._evaluate(ind);
+			if (!overlap)
+				passTurn(index);
+			awaitTurn(index);
+			return fitness;
+		}
+	}
+
+
+	/**
+	 * Returns the number of EAs
+	 * @return the number of EAs
+	 */
+	public int getNumEAs() {
+		return eas.size();
+	}
+
+
+	/**
+	 * Sets the diversity measure used in the statistics of every EA
+	 * @param measure the diversity measure
+	 */
+	public void setDiversityMeasure(DiversityMeasure measure) {
+		for (EvolutionaryAlgorithm ea: eas) {
+			ea.getStatistics().setDiversityMeasure(measure);
+		}
+	}
+
+
+	/**
+	 * Performs a run of every EA
+	 * @param seed the seed of the run (EA i uses seed + i * offset)
+	 */
+	public void run(long seed) {
+		long start = System.nanoTime();
+		long before = eep.getEvaluations();
+		int n = eas.size();
+		synchronized (this) {
+			Arrays.fill(active, true);
+			turn = 0;
+		}
+		Throwable[] failures = new Throwable[n];
+		List<Thread> threads = new ArrayList<Thread>(n);
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			final long eaSeed = seed + i * SEED_OFFSET;
+			Thread thread = new Thread(() -> {
+				try {
+					awaitTurn(index);
+					eas.get(index).run(eaSeed);
+				} catch (Throwable e) {
+					failures[index] = e;
+				} finally {
+					finish(index);
+				}
+			}, "ea-" + i);
+			threads.add(thread);
+			thread.start();
+		}
+		try {
+			for (Thread thread: threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("EAs interrupted", e);
+		}
+		for (int i = 0; i < n; i++) {
+			if (failures[i] != null)
+				throw new IllegalStateException("EA " + i + " failed", failures[i]);
+		}
+		times.add((System.nanoTime() - start) / 1e9);
+		evaluations.add(eep.getEvaluations() - before);
+	}
+
+
+	/**
+	 * Waits until it is the turn of an EA
+	 * @param index index of the EA
+	 */
+	private synchronized void awaitTurn(int index) {
+		try {
+			while (turn != index) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("EA " + index + " interrupted", e);
+		}
+	}
+
+
+	/**
+	 * Passes the turn from an EA to the next one still running (in round-robin order)
+	 * @param index index of the EA
+	 */
+	private synchronized void passTurn(int index) {
+		int n = eas.size();
+		turn = -1;
+		for (int j = 1; j <= n; j++) {
+			if (active[(index + j) % n]) {
+				turn = (index + j) % n;
+				break;
+			}
+		}
+		notifyAll();
+	}
+
+
+	/**
+	 * Marks an EA as finished in the current run and passes the turn to the next one
+	 * @param index index of the EA
+	 */
+	private synchronized void finish(int index) {
+		active[index] = false;
+		passTurn(index);
+	}
+
+
+	/**
+	 * Returns the statistics of an EA
+	 * @param index index of the EA
+	 * @return the statistics of the EA
+	 */
+	public EntropyDiversity getStatistics(int index) {
+		return eas.get(index).getStatistics();
+	}
+
+
+	/**
+	 * Returns the statistics of all EAs in the format of a regular EA with one island
+	 * per EA: for each run, the {@code rundata} of every EA (in order) is gathered in
+	 * a single array, and the remaining data of the run are those of the first EA.
+	 * Evaluations in the data of each island are counted by its own EA.
+	 * @return the statistics of all EAs
+	 */
+	public JsonArray toJSON() {
+		List<JsonArray> stats = new ArrayList<JsonArray>(eas.size());
+		for (EvolutionaryAlgorithm ea: eas) {
+			stats.add(ea.getStatistics().toJSON());
+		}
+		JsonArray merged = new JsonArray();
+		for (int r = 0; r < stats.get(0).size(); r++) {
+			JsonObject run = new JsonObject();
+			run.putAll((JsonObject) stats.get(0).get(r));
+			JsonArray rundata = new JsonArray();
+			for (JsonArray s: stats) {
+				rundata.addAll((JsonArray) ((JsonObject) s.get(r)).get("rundata"));
+			}
+			run.put("rundata", rundata);
+			merged.add(run);
+		}
+		return merged;
+	}
+
+
+	/**
+	 * Returns the index of the EA that found the best solution in a run
+	 * @param run index of the run
+	 * @return the index of the EA with the best solution in the run
+	 */
+	public int getBestEA(int run) {
+		int best = 0;
+		for (int i = 1; i < eas.size(); i++) {
+			if (getStatistics(i).getBest(run).getFitness() < getStatistics(best).getBest(run).getFitness())
+				best = i;
+		}
+		return best;
+	}
+
+
+	/**
+	 * Returns the wall-clock time of a run
+	 * @param run index of the run
+	 * @return the wall-clock time (in seconds) of the run
+	 */
+	public double getTime(int run) {
+		return times.get(run);
+	}
+
+
+	/**
+	 * Returns the throughput of a run
+	 * @param run index of the run
+	 * @return the number of evaluations per second (of wall-clock time) in the run
+	 */
+	public double getThroughput(int run) {
+		return evaluations.get(run) / times.get(run);
+	}
+}
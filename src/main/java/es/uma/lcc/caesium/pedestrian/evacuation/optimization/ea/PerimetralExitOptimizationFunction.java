@@ -2,16 +2,18 @@ package es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.TreeSet;
 
 import es.uma.lcc.caesium.ea.base.Genotype;
 import es.uma.lcc.caesium.ea.base.Individual;
 import es.uma.lcc.caesium.ea.fitness.ContinuousObjectiveFunction;
 import es.uma.lcc.caesium.ea.fitness.OptimizationSense;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.BoundedCache;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.Double2AccessDecoder;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitLayoutKey;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.FitnessEvaluation;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.PerimeterCellIndex;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 
 
@@ -20,7 +22,7 @@ import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
  * number of exits in the perimeter of a given environment, so that the evacuation 
  * performance is optimized.
  * @author ccottap, ppgllrd
- * @version 1.2
+ * @version 1.4
  *
  */
 public class PerimetralExitOptimizationFunction extends ContinuousObjectiveFunction {
@@ -41,9 +43,29 @@ public class PerimetralExitOptimizationFunction extends ContinuousObjectiveFunct
 	 */
 	private Double2AccessDecoder decoder;
 	/**
-	 * cache of fitness evaluations
+	 * index of the cells of the automaton occupied by exits at each rounded-off location
 	 */
-	private HashMap<TreeSet<Double>, Double> cache;
+	private final PerimeterCellIndex cellIndex;
+	/**
+	 * cache of fitness evaluations, indexed by the set of cells occupied by exits
+	 */
+	private BoundedCache<ExitLayoutKey, Double> cache;
+	/**
+	 * surrogate model used to pre-screen individuals (null if not configured)
+	 */
+	private final SurrogateModel surrogate;
+	/**
+	 * maximum number of entries in the cache of fitness evaluations
+	 */
+	private int cacheCapacity;
+	/**
+	 * default maximum number of entries in the cache of fitness evaluations
+	 */
+	private static final int DEFAULT_CACHE_CAPACITY = 100000;
+	/**
+	 * number of independently locked segments of the cache
+	 */
+	private static final int CACHE_SEGMENTS = 64;
 	/**
 	 * granularity in the location of exits
 	 */
@@ -64,13 +86,46 @@ public class PerimetralExitOptimizationFunction extends ContinuousObjectiveFunct
 		perimeterLength = eep.getPerimeterLength();
 		this.eep = eep;
 		decoder = new Double2AccessDecoder(eep);
+		cellIndex = eep.getPerimeterCellIndex(EXIT_PRECISION);
+		surrogate = SurrogateModel.fromConfiguration(eep.getSimulationConfiguration());
+		cacheCapacity = DEFAULT_CACHE_CAPACITY;
 		cache = null;
 	}
 	
 	@Override
 	public void newRun() {
 		super.newRun();
-		cache = new HashMap<TreeSet<Double>, Double>();
+		cache = new BoundedCache<ExitLayoutKey, Double>(cacheCapacity, CACHE_SEGMENTS);
+		if (surrogate != null)
+			surrogate.reset();
+	}
+	
+	
+	/**
+	 * Sets the maximum number of entries in the cache of fitness evaluations 
+	 * (effective from the next run)
+	 * @param capacity the maximum number of entries in the cache
+	 */
+	public void setCacheCapacity(int capacity) {
+		cacheCapacity = capacity;
+	}
+	
+	
+	/**
+	 * Returns the cache of fitness evaluations of the current run
+	 * @return the cache of fitness evaluations (with hit/miss counters)
+	 */
+	public BoundedCache<ExitLayoutKey, Double> getCache() {
+		return cache;
+	}
+	
+	
+	/**
+	 * Returns the surrogate model used to pre-screen individuals in the current run
+	 * @return the surrogate model (null if not configured)
+	 */
+	public SurrogateModel getSurrogate() {
+		return surrogate;
 	}
 	
 	
@@ -93,31 +148,67 @@ public class PerimetralExitOptimizationFunction extends ContinuousObjectiveFunct
 	}
 
 
+	/**
+	 * Evaluates an individual. If a surrogate model is configured, individuals whose 
+	 * predicted fitness is unpromising are not simulated, and get the predicted fitness 
+	 * instead. Only complete evaluations are cached and used to train the model (censored
+	 * ones, such as estimates from coarse fidelity tiers, are not the fitness of the layout).
+	 * @param ind an individual
+	 * @return the fitness of the individual
+	 */
 	@Override
 	protected double _evaluate(Individual ind) {
-		TreeSet<Double> genes = individualToTreeSet (ind);
-		Double val = cache.get(genes);
+		ExitLayoutKey key = individualToKey (ind);
+		Double val = cache.get(key);
 		if (val == null) {
-			val = eep.fitness (eep.simulate (decode (ind)));
-			cache.put(genes, val);
+			double[] locations = (surrogate == null) ? null : locations(ind);
+			if (surrogate != null)
+				val = surrogate.screen(locations);
+			if (val == null) {
+				FitnessEvaluation result = eep.evaluate (decode (ind));
+				val = result.fitness();
+				// censored evaluations (lower bounds or estimates) are not the fitness of the layout
+				if (!result.censored()) {
+					cache.put(key, val);
+					if (surrogate != null)
+						surrogate.add(locations, val);
+				}
+			}
 		}
 		
 		return val;
 	}
 	
+	
+	/**
+	 * Returns the exit locations of an individual, normalized to [0,1)
+	 * @param ind an individual
+	 * @return the normalized exit locations
+	 */
+	private double[] locations (Individual ind) {
+		double[] locations = new double[numExits];
+		Genotype g = ind.getGenome();
+		for (int exit=0; exit<numExits; exit++) {
+			double x = (double)g.getGene(exit);
+			locations[exit] = x - Math.floor(x);
+		}
+		return locations;
+	}
+	
 	/**
-	 * Transforms an individual's genome into a tree set (because genome ordering is irrelevant
-	 * when it comes to compare solutions).
+	 * Transforms an individual's genome into a key made of the cells occupied by its 
+	 * rounded-off exits (because genome ordering is irrelevant when it comes to compare 
+	 * solutions, and so are differences in location that do not change the scenario).
 	 * @param ind an individual
-	 * @return a tree set with the individual's genes
+	 * @return the key of the individual
 	 */
-	private TreeSet<Double> individualToTreeSet (Individual ind) {
-		TreeSet<Double> genes = new TreeSet<Double>();
+	private ExitLayoutKey individualToKey (Individual ind) {
+		int[] positions = new int[numExits];
 		Genotype g = ind.getGenome();
 		for (int exit=0; exit<numExits; exit++) {
-			genes.add(roundLocation(g, exit));
+			positions[exit] = cellIndex.position(((double)g.getGene(exit)) * perimeterLength);
 		}
-		return genes;
+		return cellIndex.key(positions);
 	}
 	
 
@@ -134,7 +225,7 @@ public class PerimetralExitOptimizationFunction extends ContinuousObjectiveFunct
 		for (int exit=0; exit<numExits; exit++) {
 			// locations have a precision of 1cm
 			double location = roundLocation(g, exit);
-			exits.addAll(decoder.decodeAccess(location, exit, id));
+			decoder.decodeAccess(location, exit, id, exits);
 			id = exits.size();
 		}
 		return exits;
@@ -42,26 +42,49 @@ public class RunEvacuationOptimization {
 
 		EAConfiguration conf;
 		if (args.length < 4) {
-			System.out.println ("Required parameters: <ea-configuration-file> <environment-name> <num-exits> <simulation-configuration>");
+			System.out.println ("Required parameters: <ea-configuration-file> <environment-name> <num-exits> <simulation-configuration> [interleaved]");
 			System.out.println ("\nNote that the environment configuration file will be sought as " + ENVIRONMENT_FILENAME + "<environment-name>.json,");
 			System.out.println ("and the statistics will be dumped to a file named " + STATS_FILENAME + "<environment-name>.json");
+			System.out.println ("(with one island per EA if the islands are run as interleaved independent EAs)");
 			System.exit(1);
 		}
 		
 		// Configure the EA
 		FileReader reader = new FileReader(args[0]);
-		conf = new EAConfiguration((JsonObject) Jsoner.deserialize(reader));
+		JsonObject json = (JsonObject) Jsoner.deserialize(reader);
+		reader.close();
+		conf = new EAConfiguration(json);
 		int numruns = conf.getNumRuns();
 		long firstSeed = conf.getSeed();
 		System.out.println(conf);
-		EvolutionaryAlgorithm myEA = new EvolutionaryAlgorithm(conf);
-		myEA.setVerbosityLevel(1);
 		
 		// Configure the problem
 	    Environment environment = Environment.fromFile(ENVIRONMENT_FILENAME + args[1] + ".json");
 		SimulationConfiguration simulationConf = SimulationConfiguration.fromFile(args[3]);
 	    int numExits = Integer.parseInt(args[2]);
 	    ExitEvacuationProblem eep = new ExitEvacuationProblem (environment, numExits, simulationConf);
+	    
+		if ((args.length > 4) && args[4].equalsIgnoreCase("interleaved")) {
+			InterleavedIndependentEAs eas = new InterleavedIndependentEAs(json, eep);
+			eas.setDiversityMeasure(new CircularSetDiversity(1.0));
+			System.out.println(eep);
+			for (int i=0; i<numruns; i++) {
+				eas.run(firstSeed + i);
+				System.out.println ("Run " + i + ": " + 
+									String.format("%.2f", eas.getTime(i)) + "s\t" +
+									String.format("%.2f", eas.getThroughput(i)) + " evals/s\t" +
+									eas.getStatistics(eas.getBestEA(i)).getBest(i).getFitness());
+			}
+			System.out.print(eep.getFidelityReport());
+			PrintWriter file = new PrintWriter(STATS_FILENAME + args[1] + ".json");
+			file.print(eas.toJSON().toJson());
+			file.close();
+			eep.close();
+			return;
+		}
+		
+		EvolutionaryAlgorithm myEA = new EvolutionaryAlgorithm(conf);
+		myEA.setVerbosityLevel(1);
 		myEA.setObjectiveFunction(new PerimetralExitOptimizationFunction(eep));
 		myEA.getStatistics().setDiversityMeasure(new CircularSetDiversity(1.0));
 		System.out.println(eep);
@@ -73,8 +96,10 @@ public class RunEvacuationOptimization {
 								String.format("%.2f", myEA.getStatistics().getTime(i)) + "s\t" +
 								myEA.getStatistics().getBest(i).getFitness());
 		}
+		System.out.print(eep.getFidelityReport());
 		PrintWriter file = new PrintWriter(STATS_FILENAME + args[1] + ".json");
 		file.print(myEA.getStatistics().toJSON().toJson());
 		file.close();
+		eep.close();
 	}
 }
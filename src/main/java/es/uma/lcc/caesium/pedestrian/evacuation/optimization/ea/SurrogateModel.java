@@ -0,0 +1,201 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea;
+
+import java.util.Arrays;
+
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
+
+/**
+ * Surrogate model of the fitness of exit layouts, used to pre-screen solutions
+ * before simulating them. Layouts are sets of exit locations normalized to [0,1)
+ * along the perimeter, and the model is a kernel regression (Nadaraya-Watson) over
+ * an archive of the most recently simulated layouts, with a Gaussian kernel on the
+ * circular set distance (see {@link CircularSetDiversity#distance}) symmetrized and
+ * averaged over exits. A layout is screened out (i.e., its predicted fitness is used
+ * instead of simulating it) if the prediction is supported by enough archived layouts
+ * (the sum of kernel weights is large enough) and is worse than a given quantile of
+ * the fitness of the archived layouts. Every so often, a layout that would be screened
+ * out is simulated anyway, so that the model can correct itself in regions it considers
+ * unpromising. The model is trained incrementally on every simulated layout.
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class SurrogateModel {
+	/**
+	 * locations of the archived layouts
+	 */
+	private final double[][] layouts;
+	/**
+	 * fitness of the archived layouts
+	 */
+	private final double[] values;
+	/**
+	 * bandwidth of the kernel (in normalized perimeter units per exit)
+	 */
+	private final double bandwidth;
+	/**
+	 * minimum sum of kernel weights for a prediction to be trusted
+	 */
+	private final double minWeight;
+	/**
+	 * quantile of the archived fitness values above which layouts are screened out
+	 */
+	private final double quantile;
+	/**
+	 * minimum number of archived layouts before screening starts
+	 */
+	private final int warmup;
+	/**
+	 * one out of this number of layouts that would be screened out is simulated anyway (0 = never)
+	 */
+	private final int audit;
+	/**
+	 * number of archived layouts
+	 */
+	private int size;
+	/**
+	 * position of the next layout in the archive (which is circular)
+	 */
+	private int next;
+	/**
+	 * number of layouts that would have been screened out since the last audit
+	 */
+	private int sinceAudit;
+	/**
+	 * number of layouts screened out
+	 */
+	private long screened;
+	/**
+	 * number of layouts simulated (and added to the model)
+	 */
+	private long trained;
+
+
+	/**
+	 * Creates an empty model
+	 * @param capacity maximum number of archived layouts
+	 * @param bandwidth bandwidth of the kernel (in normalized perimeter units per exit)
+	 * @param minWeight minimum sum of kernel weights for a prediction to be trusted
+	 * @param quantile quantile of the archived fitness values above which layouts are screened out
+	 * @param warmup minimum number of archived layouts before screening starts
+	 * @param audit one out of this number of layouts that would be screened out is simulated anyway (0 = never)
+	 */
+	public SurrogateModel(int capacity, double bandwidth, double minWeight, double quantile, int warmup, int audit) {
+		layouts = new double[capacity][];
+		values = new double[capacity];
+		this.bandwidth = bandwidth;
+		this.minWeight = minWeight;
+		this.quantile = quantile;
+		this.warmup = warmup;
+		this.audit = audit;
+		reset();
+	}
+
+
+	/**
+	 * Creates a model as indicated by the {@code surrogate} settings of a simulation configuration
+	 * @param conf the simulation configuration
+	 * @return the model (null if surrogate pre-screening is not configured)
+	 */
+	public static SurrogateModel fromConfiguration(SimulationConfiguration conf) {
+		int capacity = conf.getInt("surrogate/archive");
+		if (capacity <= 0)
+			return null;
+		return new SurrogateModel(capacity, conf.getDouble("surrogate/bandwidth"), conf.getDouble("surrogate/minWeight"),
+				conf.getDouble("surrogate/quantile"), conf.getInt("surrogate/warmup"), conf.getInt("surrogate/audit"));
+	}
+
+
+	/**
+	 * Empties the model and resets its counters
+	 */
+	public synchronized void reset() {
+		size = 0;
+		next = 0;
+		sinceAudit = 0;
+		screened = 0;
+		trained = 0;
+	}
+
+
+	/**
+	 * Adds a simulated layout to the model (replacing the oldest one if the archive is full)
+	 * @param locations the exit locations of the layout (normalized to [0,1))
+	 * @param fitness the fitness of the layout
+	 */
+	public synchronized void add(double[] locations, double fitness) {
+		layouts[next] = locations.clone();
+		values[next] = fitness;
+		next = (next + 1) % layouts.length;
+		size = Math.min(size + 1, layouts.length);
+		trained++;
+	}
+
+
+	/**
+	 * Predicts the fitness of a layout
+	 * @param locations the exit locations of the layout (normalized to [0,1))
+	 * @return the predicted fitness (NaN if the prediction is not supported by enough archived layouts)
+	 */
+	public synchronized double predict(double[] locations) {
+		double weights = 0.0;
+		double sum = 0.0;
+		for (int i = 0; i < size; i++) {
+			double d = 0.5 * (CircularSetDiversity.distance(locations, layouts[i], 1.0)
+					+ CircularSetDiversity.distance(layouts[i], locations, 1.0)) / locations.length;
+			double w = Math.exp(-(d * d) / (bandwidth * bandwidth));
+			weights += w;
+			sum += w * values[i];
+		}
+		return (weights >= minWeight) ? sum / weights : Double.NaN;
+	}
+
+
+	/**
+	 * Decides whether a layout can be screened out, i.e., its predicted fitness used
+	 * instead of simulating it
+	 * @param locations the exit locations of the layout (normalized to [0,1))
+	 * @return the predicted fitness if the layout is screened out, or null if it must be simulated
+	 */
+	public synchronized Double screen(double[] locations) {
+		if (size < Math.max(1, warmup))
+			return null;
+		double prediction = predict(locations);
+		if (Double.isNaN(prediction))
+			return null;
+		double[] sorted = Arrays.copyOf(values, size);
+		Arrays.sort(sorted);
+		double threshold = sorted[Math.min(size - 1, (int) (quantile * size))];
+		if (prediction <= threshold)
+			return null;
+		if ((audit > 0) && (++sinceAudit >= audit)) {
+			sinceAudit = 0;
+			return null;
+		}
+		screened++;
+		return prediction;
+	}
+
+
+	/**
+	 * Returns the number of layouts screened out since the last reset
+	 * @return the number of layouts screened out
+	 */
+	public synchronized long getScreened() {
+		return screened;
+	}
+
+
+	/**
+	 * Returns the number of layouts simulated and added to the model since the last reset
+	 * @return the number of layouts added to the model
+	 */
+	public synchronized long getTrained() {
+		return trained;
+	}
+
+
+	@Override
+	public synchronized String toString() {
+		return "Surrogate model: " + trained + " layouts simulated, " + screened + " screened out";
+	}
+}
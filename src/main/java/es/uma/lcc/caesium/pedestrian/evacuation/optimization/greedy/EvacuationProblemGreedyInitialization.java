@@ -66,7 +66,7 @@ public class EvacuationProblemGreedyInitialization extends RandomVector {
 				g.setGene(i, locations.get(i));
 			ind = new Individual();
 			ind.setGenome(g);
-			obj.addExtraCost(extra);
+			obj.addExtraCost(extra - gpep.consumeSavedEvaluations()); // racing may save some simulations
 		}
 		else {
 			ind = super._apply(parents);
@@ -78,7 +78,7 @@ public class EvacuationProblemGreedyMutation extends GaussianMutation {
 			}
 			for (int i=0; i<l; i++)
 				g.setGene(i, fixed.get(i));
-			obj.addExtraCost(num*extra - 1.0);  // deducts 1.0 because the solution is technically evaluated
+			obj.addExtraCost(num*extra - 1.0 - gpep.consumeSavedEvaluations());  // deducts 1.0 because the solution is technically evaluated (and the simulations saved by racing or early abort)
 			ind.touch();
 		}
 		else  {
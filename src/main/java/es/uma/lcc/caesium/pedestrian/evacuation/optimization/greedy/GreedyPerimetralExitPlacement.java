@@ -1,12 +1,21 @@
 package es.uma.lcc.caesium.pedestrian.evacuation.optimization.greedy;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import es.uma.lcc.caesium.ea.util.EAUtil;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.Double2AccessDecoder;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.FitnessEvaluation;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.SimulationSummary;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.SingleExitLandscape;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 
 /**
@@ -15,7 +24,7 @@ import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
  * a_{i+1} = a_i + exit_width (the addition being treated as circular 
  * within the range of the perimeter.
  * @author ccottap
- * @version 1.1 
+ * @version 1.2 
  */
 public class GreedyPerimetralExitPlacement {
 	/**
@@ -46,6 +55,26 @@ public class GreedyPerimetralExitPlacement {
 	 * verbosityL level (0 = no verbosity)
 	 */
 	private int verbosityLevel = 0; 
+	/**
+	 * executor used to evaluate candidates concurrently (null = sequential scan)
+	 */
+	private ExecutorService executor;
+	/**
+	 * number of replicas run per candidate in each round of racing (0 = no racing)
+	 */
+	private int replicasPerRound;
+	/**
+	 * width (in standard errors) of the confidence bounds used in racing
+	 */
+	private double confidence;
+	/**
+	 * whether the evaluation of a candidate stops once it is known to be worse than the best one so far
+	 */
+	private boolean cutoff;
+	/**
+	 * number of simulations saved by racing or early abort (not yet reported)
+	 */
+	private long savedSimulations;
 	
 	/**
 	 * Creates the greedy algorithm
@@ -58,6 +87,11 @@ public class GreedyPerimetralExitPlacement {
 		perimeterLength = eep.getPerimeterLength();	
 		numpos = (int)Math.ceil(perimeterLength/exitWidth);
 		inc = 1.0/numpos;
+		executor = eep.getExecutor();
+		SimulationConfiguration conf = eep.getSimulationConfiguration();
+		setRacing(conf.getInt("racing/replicasPerRound"), conf.getDouble("racing/confidence"));
+		cutoff = Boolean.parseBoolean(conf.getString("greedyCutoff"));
+		savedSimulations = 0;
 	}
 
 	/**
@@ -68,9 +102,46 @@ public class GreedyPerimetralExitPlacement {
 		this.verbosityLevel = verbosityLevel;
 	}
 
+	/**
+	 * Sets the executor used to evaluate candidates concurrently. By default, 
+	 * the pool of workers of the evacuation problem is used (if any).
+	 * @param executor the executor (null to evaluate candidates sequentially)
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the parameters of racing. When racing, the replicas of all candidates are run 
+	 * in rounds, and after each round the candidates whose lower confidence bound is 
+	 * above the upper confidence bound of the current best candidate are discarded.
+	 * @param replicasPerRound number of replicas run per candidate in each round (0 = no racing)
+	 * @param confidence width (in standard errors) of the confidence bounds
+	 */
+	public void setRacing(int replicasPerRound, double confidence) {
+		this.replicasPerRound = replicasPerRound;
+		this.confidence = confidence;
+	}
+	
+	/**
+	 * Returns the number of evaluations saved by racing or early abort since the last 
+	 * call to this method (an evaluation being the full number of simulations of the problem)
+	 * @return the number of evaluations saved
+	 */
+	public double consumeSavedEvaluations() {
+		double saved = (double)savedSimulations / eep.getNumSimulations();
+		savedSimulations = 0;
+		return saved;
+	}
+
 	/**
 	 * Finds the location of the next exit (the best out of all the 
-	 * candidate exits provided).
+	 * candidate exits provided). Ties are broken in favor of the first 
+	 * candidate, regardless of whether candidates are evaluated concurrently. 
+	 * If there are no exits yet and the single-exit landscape of the problem 
+	 * is available, candidates are looked up in it rather than simulated (they
+	 * are still accounted for as evaluations, so that evaluation budgets remain
+	 * comparable with runs without the landscape).
 	 * @param current the current list of exits
 	 * @param candidates the potential locations of the next exit 
 	 * @return the location of the next exit
@@ -84,28 +155,227 @@ public class GreedyPerimetralExitPlacement {
 			System.out.println("Initial: " + eep.fitness(eep.simulate(current)));
 			System.out.println("Candidates: " + candidates.size());
 		}
-		for (double pos: candidates) {
-			double location = pos * perimeterLength;
-			List<Access> acc = new ArrayList<Access>(current);
-			acc.addAll(decoder.decodeAccess(location, id, id));
-			double quality = eep.fitness(eep.simulate(acc));
-			if (quality < best) {
-				best = quality;
-				bestpos = pos;
+		List<Double> positions = new ArrayList<Double>(candidates);
+		double[] quality;
+		SingleExitLandscape landscape = eep.getSingleExitLandscape();
+		if (current.isEmpty() && (landscape != null)) {
+			// the first exit is looked up in the precomputed landscape (candidates not in it are evaluated)
+			quality = new double[positions.size()];
+			List<Integer> missing = new ArrayList<Integer>();
+			for (int k=0; k<quality.length; k++) {
+				quality[k] = landscape.getFitness(positions.get(k));
+				if (Double.isNaN(quality[k]))
+					missing.add(k);
+			}
+			if (!missing.isEmpty()) {
+				List<Double> rest = new ArrayList<Double>(missing.size());
+				for (int k: missing)
+					rest.add(positions.get(k));
+				double[] values = (replicasPerRound > 0) ? race(current, rest) : evaluate(current, rest);
+				for (int m=0; m<values.length; m++)
+					quality[missing.get(m)] = values[m];
+			}
+		}
+		else {
+			quality = (replicasPerRound > 0) ? race(current, positions) : evaluate(current, positions);
+		}
+		for (int k=0; k<quality.length; k++) {
+			if (quality[k] < best) {
+				best = quality[k];
+				bestpos = positions.get(k);
 				if (verbosityLevel > 0)
-					System.out.println("New best: " + pos + " (" + best + ") " + acc);
+					System.out.println("New best: " + bestpos + " (" + best + ")");
 			}
 		}
 		if (verbosityLevel > 0) {
 			System.out.println("Final best: " + bestpos + " (" + best + ")");
-			List<Access> acc = new ArrayList<Access>(current);
-			acc.addAll(decoder.decodeAccess(bestpos*perimeterLength, id, id));
+			List<Access> acc = candidate(current, bestpos, id);
 			System.out.println("Recheck: " + eep.fitness(eep.simulate(acc)) + " " + acc);
 		}
 		return bestpos;
 	}
 	
 	
+	/**
+	 * Evaluates the addition of each candidate exit to the current list of exits.
+	 * If the incumbent cutoff is enabled in the configuration, candidates are evaluated
+	 * in two waves: the first wave (as many candidates as threads of the problem, in
+	 * position order) is evaluated in full, and the fitness of its best candidate is used 
+	 * as a fixed cutoff for the rest, so their evaluation stops as soon as they are known
+	 * to be worse (see {@link ExitEvacuationProblem#evaluate(List, double)}). Such 
+	 * candidates get an infinite fitness. Since the cutoff does not depend on the order 
+	 * in which concurrent evaluations finish, neither do the censored candidates nor the 
+	 * simulations saved.
+	 * @param current the current list of exits
+	 * @param positions the potential locations of the next exit
+	 * @return the fitness of each candidate (in the same order as the positions)
+	 */
+	private double[] evaluate(List<Access> current, List<Double> positions) {
+		int n = positions.size();
+		int wave = cutoff ? Math.min(n, Math.max(1, eep.getNumThreads())) : n;
+		List<FitnessEvaluation> results = new ArrayList<FitnessEvaluation>(n);
+		results.addAll(evaluate(current, positions.subList(0, wave), Double.POSITIVE_INFINITY));
+		if (wave < n) {
+			double incumbent = Double.POSITIVE_INFINITY;
+			for (FitnessEvaluation result: results)
+				incumbent = Math.min(incumbent, result.fitness());
+			results.addAll(evaluate(current, positions.subList(wave, n), incumbent));
+		}
+		double[] quality = new double[n];
+		for (int k=0; k<n; k++) {
+			FitnessEvaluation result = results.get(k);
+			if (result.censored()) {
+				quality[k] = Double.POSITIVE_INFINITY;
+				savedSimulations += Math.max(0, eep.getNumSimulations() - result.simulations()); // adaptive sampling may run more
+			}
+			else {
+				quality[k] = result.fitness();
+			}
+		}
+		return quality;
+	}
+	
+	/**
+	 * Evaluates the addition of each candidate exit to the current list of exits 
+	 * under a given cutoff
+	 * @param current the current list of exits
+	 * @param positions the potential locations of the next exit
+	 * @param limit the cutoff of the evaluations
+	 * @return the evaluation of each candidate (in the same order as the positions)
+	 */
+	private List<FitnessEvaluation> evaluate(List<Access> current, List<Double> positions, double limit) {
+		int id = current.size();
+		List<Callable<FitnessEvaluation>> tasks = new ArrayList<Callable<FitnessEvaluation>>(positions.size());
+		for (double pos: positions)
+			tasks.add(() -> eep.evaluate(candidate(current, pos, id), limit));
+		return invokeAll(tasks);
+	}
+	
+	/**
+	 * Evaluates the addition of each candidate exit to the current list of exits by racing.
+	 * Candidates discarded during the race get an infinite fitness; the remaining ones 
+	 * get the mean fitness over all replicas. Racing never discards the candidate 
+	 * with the best mean fitness.
+	 * @param current the current list of exits
+	 * @param positions the potential locations of the next exit
+	 * @return the fitness of each candidate (in the same order as the positions)
+	 */
+	private double[] race(List<Access> current, List<Double> positions) {
+		int id = current.size();
+		int n = positions.size();
+		int numSimulations = eep.getNumSimulations();
+		double[] sum = new double[n];
+		double[] sum2 = new double[n];
+		int[] done = new int[n];
+		boolean[] alive = new boolean[n];
+		Arrays.fill(alive, true);
+		
+		int round = 0;
+		while (round < numSimulations) {
+			final int first = round;
+			final int count = Math.min(replicasPerRound, numSimulations - round);
+			List<Integer> racing = new ArrayList<Integer>(n);
+			List<Callable<List<SimulationSummary>>> tasks = new ArrayList<Callable<List<SimulationSummary>>>(n);
+			for (int k=0; k<n; k++) {
+				if (alive[k]) {
+					double pos = positions.get(k);
+					racing.add(k);
+					tasks.add(() -> eep.simulate(candidate(current, pos, id), first, count));
+				}
+			}
+			List<List<SimulationSummary>> results = invokeAll(tasks);
+			for (int r=0; r<racing.size(); r++) {
+				int k = racing.get(r);
+				for (SimulationSummary summary: results.get(r)) {
+					double f = eep.fitness(summary);
+					sum[k] += f;
+					sum2[k] += f*f;
+				}
+				done[k] += count;
+			}
+			round += count;
+			
+			// find the incumbent and discard the candidates that cannot beat it
+			int best = -1;
+			for (int k=0; k<n; k++) {
+				if (alive[k] && ((best < 0) || (sum[k] / done[k] < sum[best] / done[best])))
+					best = k;
+			}
+			double upper = sum[best] / done[best] + confidence * standardError(sum[best], sum2[best], done[best]);
+			for (int k=0; k<n; k++) {
+				if (alive[k] && (k != best)) {
+					double lower = sum[k] / done[k] - confidence * standardError(sum[k], sum2[k], done[k]);
+					if (lower > upper) {
+						alive[k] = false;
+						savedSimulations += numSimulations - done[k];
+					}
+				}
+			}
+		}
+		
+		double[] quality = new double[n];
+		for (int k=0; k<n; k++)
+			quality[k] = alive[k] ? sum[k] / done[k] : Double.POSITIVE_INFINITY;
+		return quality;
+	}
+	
+	/**
+	 * Computes the standard error of the mean of a sample
+	 * @param sum sum of the values
+	 * @param sum2 sum of the squared values
+	 * @param n size of the sample
+	 * @return the standard error of the mean (infinite if there are less than two values)
+	 */
+	private static double standardError(double sum, double sum2, int n) {
+		if (n < 2)
+			return Double.POSITIVE_INFINITY;
+		double mean = sum / n;
+		double variance = Math.max(0.0, (sum2 - n * mean * mean) / (n - 1));
+		return Math.sqrt(variance / n);
+	}
+	
+	/**
+	 * Runs a list of tasks, concurrently if an executor is available
+	 * @param <T> the type of the result of the tasks
+	 * @param tasks the tasks
+	 * @return the results of the tasks (in the same order as the tasks)
+	 */
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if (executor == null) {
+				for (Callable<T> task: tasks)
+					results.add(task.call());
+			}
+			else {
+				for (Future<T> future: executor.invokeAll(tasks))
+					results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Greedy scan interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Greedy scan failed", e.getCause());
+		} catch (Exception e) {
+			throw new IllegalStateException("Greedy scan failed", e);
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns the list of exits obtained by adding a candidate exit to the current ones
+	 * @param current the current list of exits
+	 * @param pos the location of the candidate exit (normalized)
+	 * @param id the id (and label) of the new exit
+	 * @return the extended list of exits
+	 */
+	private List<Access> candidate(List<Access> current, double pos, int id) {
+		List<Access> acc = new ArrayList<Access>(current);
+		decoder.decodeAccess(pos * perimeterLength, id, id, acc);
+		return acc;
+	}
+	
+	
 	/**
 	 * Finds the location of the next exit (the best out of all the 
 	 * candidate exits provided).
@@ -117,7 +387,7 @@ public class GreedyPerimetralExitPlacement {
 		List<Access> current = new ArrayList<Access>();
 		int id = 0;
 	    for (double loc : locations) {
-	    	current.addAll(decoder.decodeAccess(loc * perimeterLength, id++, current.size()));
+	    	decoder.decodeAccess(loc * perimeterLength, id++, current.size(), current);
 	    }
 		return nextExit(current, candidates);
 	}
@@ -179,7 +449,7 @@ public class GreedyPerimetralExitPlacement {
 		List<Access> acc = new ArrayList<Access>(numExits);
 		for (int i=0; i<numExits; i++) {
 			double next = nextExit (acc, candidates);
-			acc.addAll(decoder.decodeAccess(next * perimeterLength, i, acc.size()));
+			decoder.decodeAccess(next * perimeterLength, i, acc.size(), acc);
 			locations.add(next);
 			candidates.remove(next);
 		}
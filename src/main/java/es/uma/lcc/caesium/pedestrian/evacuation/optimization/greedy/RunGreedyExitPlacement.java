@@ -3,6 +3,7 @@ package es.uma.lcc.caesium.pedestrian.evacuation.optimization.greedy;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.Locale;
 
 import com.github.cliftonlabs.json_simple.JsonException;
@@ -12,6 +13,7 @@ import com.github.cliftonlabs.json_simple.Jsoner;
 import es.uma.lcc.caesium.ea.base.EvolutionaryAlgorithm;
 import es.uma.lcc.caesium.ea.config.EAConfiguration;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.SingleExitLandscape;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea.CircularSetDiversity;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea.PerimetralExitOptimizationFunction;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
@@ -67,6 +69,8 @@ public class RunGreedyExitPlacement {
 		SimulationConfiguration simulationConf = SimulationConfiguration.fromFile(args[3]);
 	    int numExits = Integer.parseInt(args[2]);
 	    ExitEvacuationProblem eep = new ExitEvacuationProblem (environment, numExits, simulationConf);
+	    if (Boolean.parseBoolean(simulationConf.getString("singleExitLandscape")))
+	    	eep.setSingleExitLandscape(SingleExitLandscape.of(eep, Path.of(ENVIRONMENT_FILENAME + args[1] + SingleExitLandscape.SUFFIX)));
 		myEA.setObjectiveFunction(new PerimetralExitOptimizationFunction(eep));
 		myEA.getStatistics().setDiversityMeasure(new CircularSetDiversity(1.0));
 		System.out.println(eep);
@@ -78,8 +82,10 @@ public class RunGreedyExitPlacement {
 								String.format("%.2f", myEA.getStatistics().getTime(i)) + "s\t" +
 								myEA.getStatistics().getBest(i).getFitness());
 		}
+		System.out.print(eep.getFidelityReport());
 		PrintWriter file = new PrintWriter(STATS_FILENAME + args[1] + ".json");
 		file.print(myEA.getStatistics().toJSON().toJson());
 		file.close();
+		eep.close();
 	}
 }
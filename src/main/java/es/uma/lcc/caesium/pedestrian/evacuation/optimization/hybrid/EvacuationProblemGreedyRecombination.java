@@ -67,6 +67,7 @@ public class EvacuationProblemGreedyRecombination extends FixedSizeSetRecombinat
 			for (int i=0; i<l; i++)
 				obj.addExtraCost(s-i);  
 			List<Double> selected = gpep.getExits(l, union);
+			obj.addExtraCost(-gpep.consumeSavedEvaluations()); // simulations saved by racing
 			Genotype offspring = new Genotype(l);
 			for (int i=0; i<l; i++)
 				offspring.setGene(i, selected.get(i));
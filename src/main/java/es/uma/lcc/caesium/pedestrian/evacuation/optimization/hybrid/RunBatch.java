@@ -3,12 +3,13 @@ package es.uma.lcc.caesium.pedestrian.evacuation.optimization.hybrid;
 import java.io.FileReader;
 import java.io.IOException;
 
-import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonException;
 import com.github.cliftonlabs.json_simple.JsonObject;
 import com.github.cliftonlabs.json_simple.Jsoner;
 
+import es.uma.lcc.caesium.ea.config.EAConfiguration;
 import es.uma.lcc.caesium.ea.util.JsonUtil;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.BatchScheduler;
 
 /**
  * Runs experiments in batch
@@ -18,7 +19,8 @@ import es.uma.lcc.caesium.ea.util.JsonUtil;
 public class RunBatch {
 
 	/**
-	 * Main method to run experiments in batch
+	 * Main method to run experiments in batch (concurrently, within the core budget 
+	 * given by the optional key {@code cores} of the batch file)
 	 * @param args commnad-line arguments: name of the batch file
 	 * @throws JsonException if the file (or any file referenced within it) is not properly formatted
 	 * @throws IOException if files cannot be read/written
@@ -30,35 +32,16 @@ public class RunBatch {
 		}
 		// reads batch configuration
 		JsonObject conf = (JsonObject) Jsoner.deserialize(new FileReader(args[0]));
-		String algorithmConf = (String) conf.get("algorithm");
-		int numExits = JsonUtil.getInt(conf, "exits");
-		String simulationConf = (String) conf.get("simulation");
-		JsonArray experiments = (JsonArray) conf.get("experiments");
-
-		String[] params = new String[4];
-		params[0] = algorithmConf;
-		params[2] = String.valueOf(numExits);
-		params[3] = simulationConf;
-		
-		for (Object o: experiments) {
-			JsonObject exp = (JsonObject)o;
-			String environment = (String) exp.get("basename");
-			int num = JsonUtil.getInt(exp, "num");
-			int first = 1;
-			if (exp.containsKey("start")) {
-				first = JsonUtil.getInt(exp, "start");
-			}
-
-			for (int i=first; i<=num; i++) {
-				params[1] = environment + "-" + String.valueOf(i);
-				System.out.println("--------------------------------------------------------------------------------");
-				System.out.println("Running " + params[0] + " " + params[1] + " " + params[2] + " " + params[3]);
-				System.out.println("--------------------------------------------------------------------------------");
-				RunHybridExitPlacement.main(params);
-			}
-
+		int cores = Runtime.getRuntime().availableProcessors();
+		if (conf.containsKey("cores")) {
+			cores = JsonUtil.getInt(conf, "cores");
 		}
-
+		// each run of an experiment is a separate job
+		EAConfiguration algorithm;
+		try (FileReader reader = new FileReader(conf.get("algorithm") + ".json")) {
+			algorithm = new EAConfiguration((JsonObject) Jsoner.deserialize(reader));
+		}
+		new BatchScheduler(args[0], RunHybridExitPlacement.class, cores, algorithm.getNumRuns()).run(conf);
 	}
 
 }
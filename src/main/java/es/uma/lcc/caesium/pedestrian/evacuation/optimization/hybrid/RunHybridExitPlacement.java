@@ -3,6 +3,9 @@ package es.uma.lcc.caesium.pedestrian.evacuation.optimization.hybrid;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 import com.github.cliftonlabs.json_simple.JsonException;
@@ -12,9 +15,12 @@ import com.github.cliftonlabs.json_simple.Jsoner;
 import es.uma.lcc.caesium.ea.base.EvolutionaryAlgorithm;
 import es.uma.lcc.caesium.ea.config.EAConfiguration;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.RobustnessAnalysis;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.SingleExitLandscape;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea.CircularSetDiversity;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea.PerimetralExitOptimizationFunction;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Environment;
 
 /**
@@ -50,11 +56,12 @@ public class RunHybridExitPlacement {
 
 		EAConfiguration conf;
 		if (args.length < 4) {
-			System.out.println ("Required parameters: <configuration-name> <environment-name> <num-exits> <simulation-configuration>");
+			System.out.println ("Required parameters: <configuration-name> <environment-name> <num-exits> <simulation-configuration> [<run>]");
 			System.out.println ("\nNote that: ");
 			System.out.println ("\t- the EA configuration file will be sought as <configuration-name>.json,");
 			System.out.println ("\t- the environment configuration file will be sought as " + ENVIRONMENT_FILENAME + "<environment-name>.json,");
-			System.out.println ("\t- the statistics will be dumped to a file named <configuration-name>" + STATS_FILENAME + "<environment-name>-<num-exits>.json");
+			System.out.println ("\t- the statistics will be dumped to a file named <configuration-name>" + STATS_FILENAME + "<environment-name>-<num-exits>.json,");
+			System.out.println ("\t- if a run index is given, only that run is performed, and \"-run<run>\" is appended to the names of the output files.");
 			System.exit(1);
 		}
 				
@@ -73,38 +80,37 @@ public class RunHybridExitPlacement {
 		SimulationConfiguration simulationConf = SimulationConfiguration.fromFile(args[3]);
 	    int numExits = Integer.parseInt(args[2]);
 	    ExitEvacuationProblem eep = new ExitEvacuationProblem (environment, numExits, simulationConf);
+	    if (Boolean.parseBoolean(simulationConf.getString("singleExitLandscape")))
+	    	eep.setSingleExitLandscape(SingleExitLandscape.of(eep, Path.of(ENVIRONMENT_FILENAME + args[1] + SingleExitLandscape.SUFFIX)));
 	    PerimetralExitOptimizationFunction peof = new PerimetralExitOptimizationFunction(eep);
 		myEA.setObjectiveFunction(peof);
 		myEA.getStatistics().setDiversityMeasure(new CircularSetDiversity(1.0));
 		//System.out.println(eep);
 		System.out.println(simulationConf);
 		
-		for (int i=0; i<numruns; i++) {
+		// a single run (e.g., a job of a batch) if its index is given
+		int firstRun = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+		int lastRun = (args.length > 4) ? firstRun + 1 : numruns;
+		String outputName = args[1] + "-" + args[2] + ((args.length > 4) ? "-run" + firstRun : "");
+		for (int i=firstRun; i<lastRun; i++) {
 			long seed = firstSeed + i;
 			myEA.run(seed);
 			System.out.println ("Run " + i + ": " + 
-								String.format("%.2f", myEA.getStatistics().getTime(i)) + "s\t" +
-								myEA.getStatistics().getBest(i).getFitness());
+								String.format("%.2f", myEA.getStatistics().getTime(i - firstRun)) + "s\t" +
+								myEA.getStatistics().getBest(i - firstRun).getFitness());
 		}
-		PrintWriter file = new PrintWriter(args[0] + STATS_FILENAME + args[1] + "-" + args[2] + ".json");
+		System.out.print(eep.getFidelityReport());
+		PrintWriter file = new PrintWriter(args[0] + STATS_FILENAME + outputName + ".json");
 		file.print(myEA.getStatistics().toJSON().toJson());
 		file.close();
 		
 		// Analyze the best solutions more in depth
-		PrintWriter solsim = new PrintWriter(args[0] + SIMULATIONS_FILENAME + args[1] + "-" + args[2] + ".csv");
-		final int NUMSIMS = 1000;
-		solsim.print("run");
-		for (int j=0; j<NUMSIMS; j++)
-			solsim.print(",sim" + j);
-		solsim.println();
-		for (int i=0; i<numruns; i++) {
-			solsim.print(i);
-			var summaries = eep.simulate(peof.decode(myEA.getStatistics().getBest(i)), NUMSIMS); 
-			for (int j=0; j<NUMSIMS; j++)
-				solsim.print("," + eep.fitness(summaries.get(j)));
-			solsim.println();
+		List<List<Access>> solutions = new ArrayList<List<Access>>(lastRun - firstRun);
+		for (int i=0; i<lastRun-firstRun; i++) {
+			solutions.add(peof.decode(myEA.getStatistics().getBest(i)));
 		}
-		solsim.close();
+		new RobustnessAnalysis(eep).run(args[0] + SIMULATIONS_FILENAME + outputName + ".csv", solutions);
+		eep.close();
 		
 	}
 }
@@ -2,12 +2,10 @@ package es.uma.lcc.caesium.pedestrian.evacuation.optimization.hybrid;
 
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
-import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonException;
 import com.github.cliftonlabs.json_simple.JsonObject;
 import com.github.cliftonlabs.json_simple.Jsoner;
@@ -16,8 +14,11 @@ import es.uma.lcc.caesium.ea.base.Genotype;
 import es.uma.lcc.caesium.ea.base.Individual;
 import es.uma.lcc.caesium.ea.config.EAConfiguration;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ExitEvacuationProblem;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.RobustnessAnalysis;
+import es.uma.lcc.caesium.pedestrian.evacuation.optimization.StatsIndex;
 import es.uma.lcc.caesium.pedestrian.evacuation.optimization.ea.PerimetralExitOptimizationFunction;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration.SimulationConfiguration;
+import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Access;
 import es.uma.lcc.caesium.pedestrian.evacuation.simulator.environment.Environment;
 
 /**
@@ -79,57 +80,20 @@ public class RunTestAnalysis {
 		//System.out.println(eep);
 		System.out.println(simulationConf);
 		
-		FileReader statsFile = new FileReader(args[0] + STATS_FILENAME + args[1] + "-" + args[2] + ".json");
-		JsonArray stats = (JsonArray) Jsoner.deserialize(statsFile);
-		statsFile.close();
-		
+		StatsIndex stats = StatsIndex.of(args[0] + STATS_FILENAME + args[1] + "-" + args[2] + ".json");
+
 		List<List<Double>> solutions = new ArrayList<List<Double>> (numruns);
 		for (int i=0; i<numruns; i++) {
-			JsonArray rundata = (JsonArray) ((JsonObject)(stats.get(i))).get("rundata");
-			int numIslands = rundata.size();
-			double best = Double.POSITIVE_INFINITY;
-			int index = 0;
-			int row = 0;
-			for (int j=0; j<numIslands; j++) {
-				JsonObject isols = (JsonObject) ((JsonObject) rundata.get(j)).get("isols");
-				JsonArray evals = (JsonArray) isols.get("evals");
-				JsonArray fitnesses = (JsonArray) isols.get("fitness");
-				for (int k=evals.size()-1; k>=0; k--) {
-					long ev = evals.getLong(k);
-					if (ev <= maxevals) {
-						double fitness = fitnesses.getDouble(k);
-						if (fitness < best) {
-							best = fitness;
-							index = j;
-							row = k;
-						}
-						break;
-					}
-				}
-			}
-			JsonObject isols = (JsonObject) ((JsonObject) rundata.get(index)).get("isols");
-			JsonArray evals = (JsonArray) isols.get("evals");
-			JsonArray genomes = (JsonArray) isols.get("genome");
-			JsonArray fitnesses = (JsonArray) isols.get("fitness");
-			System.out.println("Run #" + i + ": best solution from island #" + index + " at evals=" + evals.getLong(row) + " with fitness=" + fitnesses.getDouble(row));
-			JsonArray genome = (JsonArray) genomes.get(row);
-			List<Double> sol = new ArrayList<Double>(numExits);
-			for (int l=0; l<numExits; l++) {
-				sol.add(genome.getDouble(l));
-			}
+			StatsIndex.Best best = stats.best(i, maxevals);
+			System.out.println("Run #" + i + ": best solution from island #" + best.island() + " at evals=" + best.evals() + " with fitness=" + best.fitness());
+			List<Double> sol = new ArrayList<Double>(best.genome().subList(0, numExits));
 			System.out.println(sol);
 			solutions.add(sol);
 		}
 
 		// Analyze the best solutions more in depth
-		PrintWriter solsim = new PrintWriter(args[0] + SIMULATIONS_FILENAME + args[1] + "-" + args[2] + ".csv");
-		final int NUMSIMS = 1000;
-		solsim.print("run");
-		for (int j=0; j<NUMSIMS; j++)
-			solsim.print(",sim" + j);
-		solsim.println();
+		List<List<Access>> layouts = new ArrayList<List<Access>>(numruns);
 		for (int i=0; i<numruns; i++) {
-			solsim.print(i);
 			Individual ind = new Individual();
 			Genotype g = new Genotype(numExits);
 			List<Double> sol = solutions.get(i);
@@ -137,12 +101,10 @@ public class RunTestAnalysis {
 				g.setGene(j, sol.get(j));
 			}
 			ind.setGenome(g);
-			var summaries = eep.simulate(peof.decode(ind), NUMSIMS); 
-			for (int j=0; j<NUMSIMS; j++)
-				solsim.print("," + eep.fitness(summaries.get(j)));
-			solsim.println();
+			layouts.add(peof.decode(ind));
 		}
-		solsim.close();
+		new RobustnessAnalysis(eep).run(args[0] + SIMULATIONS_FILENAME + args[1] + "-" + args[2] + ".csv", layouts);
+		eep.close();
 		
 	}
 }
@@ -3,7 +3,10 @@ package es.uma.lcc.caesium.pedestrian.evacuation.simulator.configuration;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.github.cliftonlabs.json_simple.JsonArray;
 import com.github.cliftonlabs.json_simple.JsonException;
@@ -51,6 +54,14 @@ public class SimulationConfiguration {
 		return parameters.get(key);
 	}
 	
+	/**
+	 * Returns all the configuration properties
+	 * @return an unmodifiable view of the map of parameter names and values
+	 */
+	public Map<String,String> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+	
 	/**
 	 * Sets the value of a configuration property
 	 * @param key name of the property
@@ -75,6 +86,125 @@ public class SimulationConfiguration {
 		if (json.containsKey("numSimulations")) 
 			numSimulations = JsonUtil.getInt(json, "numSimulations");
 		conf.parameters.put("numSimulations", Integer.toString(numSimulations));
+		int numThreads = 1;
+		if (json.containsKey("numThreads")) 
+			numThreads = JsonUtil.getInt(json, "numThreads");
+		conf.parameters.put("numThreads", Integer.toString(numThreads));
+		int scenarioCacheEntries = 0;     // disabled by default
+		int scenarioCacheMegabytes = 1024;
+		if (json.containsKey("scenarioCache")) {
+			JsonObject cache = (JsonObject)json.get("scenarioCache");
+			if (cache.containsKey("maxEntries"))
+				scenarioCacheEntries = JsonUtil.getInt(cache, "maxEntries");
+			if (cache.containsKey("maxMegabytes"))
+				scenarioCacheMegabytes = JsonUtil.getInt(cache, "maxMegabytes");
+		}
+		conf.parameters.put("scenarioCache/maxEntries", Integer.toString(scenarioCacheEntries));
+		conf.parameters.put("scenarioCache/maxMegabytes", Integer.toString(scenarioCacheMegabytes));
+		int replicasPerRound = 0;     // no racing by default
+		double confidence = 2.0;
+		if (json.containsKey("racing")) {
+			JsonObject racing = (JsonObject)json.get("racing");
+			if (racing.containsKey("replicasPerRound"))
+				replicasPerRound = JsonUtil.getInt(racing, "replicasPerRound");
+			if (racing.containsKey("confidence"))
+				confidence = JsonUtil.getDouble(racing, "confidence");
+		}
+		conf.parameters.put("racing/replicasPerRound", Integer.toString(replicasPerRound));
+		conf.parameters.put("racing/confidence", Double.toString(confidence));
+		int minSimulations = 0;     // fixed number of simulations by default
+		double tolerance = 0.0;
+		if (json.containsKey("adaptive")) {
+			JsonObject adaptive = (JsonObject)json.get("adaptive");
+			if (adaptive.containsKey("minSimulations"))
+				minSimulations = JsonUtil.getInt(adaptive, "minSimulations");
+			if (adaptive.containsKey("tolerance"))
+				tolerance = JsonUtil.getDouble(adaptive, "tolerance");
+		}
+		conf.parameters.put("adaptive/minSimulations", Integer.toString(minSimulations));
+		conf.parameters.put("adaptive/tolerance", Double.toString(tolerance));
+		String store = "";     // no persistent store by default
+		if (json.containsKey("store")) 
+			store = (String)json.get("store");
+		conf.parameters.put("store", store);
+		String addresses = "";     // simulations are run in this JVM by default
+		int localWorkers = 0;
+		double workerTimeout = 600.0;     // chunks taking longer than 10 minutes are re-dispatched by default (0 = no timeout)
+		if (json.containsKey("workers")) {
+			JsonObject workers = (JsonObject)json.get("workers");
+			if (workers.containsKey("addresses")) {
+				JsonArray list = (JsonArray)workers.get("addresses");
+				addresses = String.join(",", list.stream().map(Object::toString).toList());
+			}
+			if (workers.containsKey("local"))
+				localWorkers = JsonUtil.getInt(workers, "local");
+			if (workers.containsKey("timeout"))
+				workerTimeout = JsonUtil.getDouble(workers, "timeout");
+		}
+		conf.parameters.put("workers/addresses", addresses);
+		conf.parameters.put("workers/local", Integer.toString(localWorkers));
+		conf.parameters.put("workers/timeout", Double.toString(workerTimeout));
+		String analysisFormat = "csv";     // text output of post-run analyses by default
+		boolean analysisSummary = false;
+		if (json.containsKey("analysis")) {
+			JsonObject analysis = (JsonObject)json.get("analysis");
+			if (analysis.containsKey("format"))
+				analysisFormat = ((String)analysis.get("format")).toLowerCase();
+			if (analysis.containsKey("summary"))
+				analysisSummary = (Boolean)analysis.get("summary");
+		}
+		conf.parameters.put("analysis/format", analysisFormat);
+		conf.parameters.put("analysis/summary", Boolean.toString(analysisSummary));
+		int numTiers = 0;     // full-fidelity evaluation only by default
+		if (json.containsKey("fidelity")) {
+			JsonObject fidelity = (JsonObject)json.get("fidelity");
+			if (fidelity.containsKey("tiers")) {
+				// coarse tiers (from coarsest to finest); missing values are taken from the full-fidelity configuration
+				for (Object o: (JsonArray)fidelity.get("tiers")) {
+					JsonObject tier = (JsonObject)o;
+					String prefix = "fidelity/" + numTiers + "/";
+					for (String key: new String[] {"cellDimension", "numSimulations", "timeLimit", "margin"}) {
+						if (tier.containsKey(key))
+							conf.parameters.put(prefix + key, Double.toString(JsonUtil.getDouble(tier, key)));
+					}
+					numTiers++;
+				}
+			}
+		}
+		conf.parameters.put("fidelity/tiers", Integer.toString(numTiers));
+		int surrogateArchive = 0;     // no surrogate pre-screening by default
+		double surrogateBandwidth = 0.02;
+		double surrogateMinWeight = 1.0;
+		double surrogateQuantile = 0.5;
+		int surrogateWarmup = 20;
+		int surrogateAudit = 10;
+		if (json.containsKey("surrogate")) {
+			JsonObject surrogate = (JsonObject)json.get("surrogate");
+			if (surrogate.containsKey("archive"))
+				surrogateArchive = JsonUtil.getInt(surrogate, "archive");
+			if (surrogate.containsKey("bandwidth"))
+				surrogateBandwidth = JsonUtil.getDouble(surrogate, "bandwidth");
+			if (surrogate.containsKey("minWeight"))
+				surrogateMinWeight = JsonUtil.getDouble(surrogate, "minWeight");
+			if (surrogate.containsKey("quantile"))
+				surrogateQuantile = JsonUtil.getDouble(surrogate, "quantile");
+			if (surrogate.containsKey("warmup"))
+				surrogateWarmup = JsonUtil.getInt(surrogate, "warmup");
+			if (surrogate.containsKey("audit"))
+				surrogateAudit = JsonUtil.getInt(surrogate, "audit");
+		}
+		conf.parameters.put("surrogate/archive", Integer.toString(surrogateArchive));
+		conf.parameters.put("surrogate/bandwidth", Double.toString(surrogateBandwidth));
+		conf.parameters.put("surrogate/minWeight", Double.toString(surrogateMinWeight));
+		conf.parameters.put("surrogate/quantile", Double.toString(surrogateQuantile));
+		conf.parameters.put("surrogate/warmup", Integer.toString(surrogateWarmup));
+		conf.parameters.put("surrogate/audit", Integer.toString(surrogateAudit));
+		// single-exit layouts are simulated unless a precomputed landscape is requested
+		boolean landscape = json.containsKey("singleExitLandscape") && (Boolean)json.get("singleExitLandscape");
+		conf.parameters.put("singleExitLandscape", Boolean.toString(landscape));
+		// greedy candidates are fully evaluated unless the incumbent cutoff is requested
+		boolean greedyCutoff = json.containsKey("greedyCutoff") && (Boolean)json.get("greedyCutoff");
+		conf.parameters.put("greedyCutoff", Boolean.toString(greedyCutoff));
 		
 		JsonObject simulator = (JsonObject)json.get("simulator");
 		conf.parameters.put("timeLimit", Double.toString(JsonUtil.getDouble(simulator,"timeLimit")));
@@ -86,6 +216,8 @@ public class SimulationConfiguration {
 			conf.parameters.put("cellularAutomatonParameters/cellDimension", Double.toString(JsonUtil.getDouble(ca, "cellDimension")));
 			conf.parameters.put("cellularAutomatonParameters/neighborhood", (String)ca.get("neighborhood"));		
 			conf.parameters.put("cellularAutomatonParameters/floorField", (String)ca.get("floorField"));	
+			boolean composed = ca.containsKey("composedFloorField") && (Boolean)ca.get("composedFloorField");
+			conf.parameters.put("cellularAutomatonParameters/composedFloorField", Boolean.toString(composed));	
 			break;
 		default:
 			System.err.println("Configuration error: simulator type " + type + "unknown.");
@@ -97,6 +229,13 @@ public class SimulationConfiguration {
 		for (String key: pedestrianKeys) {
 			putInterval(conf, (JsonArray) crowd.get(key), "crowd/" + key);
 		}
+		for (int k = 0; k < numTiers; k++) {
+			String prefix = "fidelity/" + k + "/";
+			conf.parameters.putIfAbsent(prefix + "cellDimension", conf.parameters.get("cellularAutomatonParameters/cellDimension"));
+			conf.parameters.putIfAbsent(prefix + "numSimulations", conf.parameters.get("numSimulations"));
+			conf.parameters.putIfAbsent(prefix + "timeLimit", conf.parameters.get("timeLimit"));
+			conf.parameters.putIfAbsent(prefix + "margin", Double.toString(1.0));
+		}
 		return conf;
 	}
 
@@ -134,11 +273,86 @@ public class SimulationConfiguration {
 		return fromFile(new File(filename));
 	}
 	
+	/**
+	 * Returns a canonical description of the parameters that determine the outcome 
+	 * of each individual simulation. Parameters that only affect how many simulations 
+	 * are run or how they are run (number of simulations, threads, caches, racing, 
+	 * adaptive evaluation, persistent store, remote workers, analysis output, fidelity 
+	 * tiers, surrogate pre-screening, single-exit landscape) are excluded.
+	 * @return a canonical description of the parameters of a simulation
+	 */
+	public String fingerprint() {
+		TreeMap<String, String> relevant = new TreeMap<String, String>();
+		for (var entry: parameters.entrySet()) {
+			String key = entry.getKey();
+			if (!(key.equals("numSimulations") || key.equals("numThreads") || key.equals("store") 
+					|| key.startsWith("scenarioCache/") || key.startsWith("racing/") || key.startsWith("adaptive/")
+					|| key.startsWith("workers/") || key.startsWith("analysis/") || key.startsWith("fidelity/")
+					|| key.startsWith("surrogate/") || key.equals("singleExitLandscape")
+					|| key.equals("greedyCutoff"))) {
+				relevant.put(key, entry.getValue());
+			}
+		}
+		return relevant.toString();
+	}
+	
+	/**
+	 * Returns a canonical description of the parameters that determine how the fitness 
+	 * of a solution is estimated from individual simulations (number of simulations, 
+	 * adaptive evaluation and fidelity tiers), which are not part of the {@link #fingerprint}.
+	 * @return a canonical description of the parameters of the fitness estimator
+	 */
+	public String estimatorFingerprint() {
+		TreeMap<String, String> relevant = new TreeMap<String, String>();
+		for (var entry: parameters.entrySet()) {
+			String key = entry.getKey();
+			if (key.equals("numSimulations") || key.startsWith("adaptive/") || key.startsWith("fidelity/")) {
+				relevant.put(key, entry.getValue());
+			}
+		}
+		return relevant.toString();
+	}
+	
+	/**
+	 * Returns a description of the coarse fidelity tiers
+	 * @return a description of the coarse fidelity tiers
+	 */
+	private String fidelityTiers() {
+		int numTiers = getInt("fidelity/tiers");
+		if (numTiers == 0)
+			return "none";
+		StringBuilder str = new StringBuilder();
+		for (int k = 0; k < numTiers; k++) {
+			String prefix = "fidelity/" + k + "/";
+			str.append(k == 0 ? "" : "; ")
+			   .append(getDouble(prefix + "cellDimension")).append(" m cells, ")
+			   .append(getInt(prefix + "numSimulations")).append(" simulations, ")
+			   .append(getDouble(prefix + "timeLimit")).append("s, margin ")
+			   .append(getDouble(prefix + "margin"));
+		}
+		return str.toString();
+	}
+	
 	@Override
 	public String toString() {
 		String str = "------------------------------------------------\nSimulation configuration\n------------------------------------------------" 
 				+ "\nseed:                          " + getInt("seed")
 				+ "\nnumber of simulations:         " + getInt("numSimulations")
+				+ "\nnumber of threads:             " + getInt("numThreads") + " (replicas in this JVM run one at a time)"
+				+ "\nscenario cache:                " + getInt("scenarioCache/maxEntries") + " entries, " + getInt("scenarioCache/maxMegabytes") + " MB"
+				+ "\nracing:                        " + getInt("racing/replicasPerRound") + " replicas/round, " + getDouble("racing/confidence") + " std. errors"
+				+ "\nadaptive simulations:          " + getInt("adaptive/minSimulations") + " min., " + getDouble("adaptive/tolerance") + " tolerance"
+				+ "\npersistent store:              " + (getString("store").isEmpty() ? "none" : getString("store"))
+				+ "\nremote workers:                " + (getString("workers/addresses").isEmpty() ? "none" : getString("workers/addresses")) 
+				+ " (+" + getInt("workers/local") + " local), " + getDouble("workers/timeout") + "s timeout"
+				+ "\nanalysis output:               " + getString("analysis/format") + (Boolean.parseBoolean(getString("analysis/summary")) ? " (full summaries)" : "")
+				+ "\nfidelity tiers:                " + fidelityTiers()
+				+ "\nsurrogate pre-screening:       " + ((getInt("surrogate/archive") <= 0) ? "none" 
+						: getInt("surrogate/archive") + " archived layouts, bandwidth " + getDouble("surrogate/bandwidth") 
+						+ ", min. weight " + getDouble("surrogate/minWeight") + ", quantile " + getDouble("surrogate/quantile")
+						+ ", warmup " + getInt("surrogate/warmup") + ", audit every " + getInt("surrogate/audit"))
+				+ "\nsingle-exit landscape:         " + getString("singleExitLandscape")
+				+ "\ngreedy incumbent cutoff:       " + getString("greedyCutoff")
 				+ "\ntime limit:                    " + getDouble("timeLimit");
 		String type = getString("simulatorType");
 		str += "\nsimulator type:                " + type;
@@ -146,7 +360,8 @@ public class SimulationConfiguration {
 		case "CA" :
 			str += "\ncell dimension:                " + getDouble("cellularAutomatonParameters/cellDimension")
 			     + "\nneighborhood:                  " + getString("cellularAutomatonParameters/neighborhood")
-			     + "\nfloor field:                   " + getString("cellularAutomatonParameters/floorField");
+			     + "\nfloor field:                   " + getString("cellularAutomatonParameters/floorField")
+			     + "\ncomposed floor field:          " + getString("cellularAutomatonParameters/composedFloorField");
 			break;
 		}
 		str+= "\npedestrian reference velocity: " + getDouble("crowd/pedestrianReferenceVelocity")
@@ -0,0 +1,107 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of the determinism of the crowds sampled by a bank
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class CrowdBankTest {
+	/**
+	 * range of the number of pedestrians
+	 */
+	private static final int MIN_PEDESTRIANS = 5, MAX_PEDESTRIANS = 20;
+	/**
+	 * range of each parameter of pedestrians
+	 */
+	private static final double[] RANGES = {0.5, 2.0, 1.0, 1.5, 0.8, 0.8};
+
+	/**
+	 * Creates a bank
+	 * @param seed base seed of the replica streams
+	 * @return the bank
+	 */
+	private static CrowdBank bank(long seed) {
+		return new CrowdBank(seed, MIN_PEDESTRIANS, MAX_PEDESTRIANS, RANGES);
+	}
+
+	/**
+	 * Returns the parameters of the pedestrians of a replica
+	 * @param crowds the crowds
+	 * @param replica the index of the replica
+	 * @return the parameters of the pedestrians of the replica
+	 */
+	private static double[] parameters(CrowdBank.Crowds crowds, int replica) {
+		return Arrays.copyOfRange(crowds.parameters, CrowdBank.PARAMETERS * crowds.offsets[replica], 
+				CrowdBank.PARAMETERS * crowds.offsets[replica + 1]);
+	}
+
+	/**
+	 * Banks with the same seed sample the same crowds
+	 */
+	@Test
+	public void sameSeedGivesSameCrowds() {
+		CrowdBank.Crowds a = bank(42L).covering(10);
+		CrowdBank.Crowds b = bank(42L).covering(10);
+		for (int replica = 0; replica <= 10; replica++) {
+			assertEquals(a.seeds[replica], b.seeds[replica]);
+			assertEquals(a.numPedestrians(replica), b.numPedestrians(replica));
+			assertArrayEquals(parameters(a, replica), parameters(b, replica), 0.0);
+		}
+	}
+
+	/**
+	 * The crowd of a replica does not depend on how the bank grew
+	 */
+	@Test
+	public void crowdsDoNotDependOnGrowth() {
+		CrowdBank direct = bank(7L);
+		CrowdBank stepwise = bank(7L);
+		for (int replica = 0; replica < 13; replica++) {
+			stepwise.covering(replica);
+		}
+		CrowdBank.Crowds a = direct.covering(12);
+		CrowdBank.Crowds b = stepwise.covering(12);
+		assertTrue(direct.size() > 12);
+		assertTrue(stepwise.size() > 12);
+		for (int replica = 0; replica <= 12; replica++) {
+			assertEquals(a.seeds[replica], b.seeds[replica]);
+			assertArrayEquals(parameters(a, replica), parameters(b, replica), 0.0);
+		}
+	}
+
+	/**
+	 * Banks with different seeds sample different crowds
+	 */
+	@Test
+	public void differentSeedsGiveDifferentCrowds() {
+		CrowdBank.Crowds a = bank(1L).covering(3);
+		CrowdBank.Crowds b = bank(2L).covering(3);
+		assertFalse(Arrays.equals(Arrays.copyOf(a.seeds, 4), Arrays.copyOf(b.seeds, 4)));
+	}
+
+	/**
+	 * Sampled crowds are within the configured ranges
+	 */
+	@Test
+	public void crowdsAreWithinRanges() {
+		CrowdBank.Crowds crowds = bank(3L).covering(20);
+		for (int replica = 0; replica <= 20; replica++) {
+			int n = crowds.numPedestrians(replica);
+			assertTrue(n >= MIN_PEDESTRIANS && n <= MAX_PEDESTRIANS);
+			double[] parameters = parameters(crowds, replica);
+			for (int i = 0; i < parameters.length; i++) {
+				int k = i % CrowdBank.PARAMETERS;
+				assertTrue(parameters[i] >= RANGES[2 * k] && parameters[i] <= RANGES[2 * k + 1]);
+			}
+		}
+	}
+}
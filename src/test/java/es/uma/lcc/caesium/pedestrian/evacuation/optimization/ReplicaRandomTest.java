@@ -0,0 +1,71 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+/**
+ * Tests of the determinism of the random streams of replicas
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class ReplicaRandomTest {
+	/**
+	 * number of values drawn from each stream
+	 */
+	private static final int DRAWS = 32;
+
+	/**
+	 * Draws some values from the stream of a replica
+	 * @param seed the base seed
+	 * @param replica the index of the replica
+	 * @param solutionKey a key of the solution
+	 * @return the values drawn
+	 */
+	private static long[] draw(long seed, int replica, long solutionKey) {
+		SplittableRandom rng = ReplicaRandom.stream(seed, replica, solutionKey);
+		long[] values = new long[DRAWS];
+		for (int i = 0; i < DRAWS; i++) {
+			values[i] = rng.nextLong();
+		}
+		return values;
+	}
+
+	/**
+	 * The same seed, replica and solution key give the same stream
+	 */
+	@Test
+	public void sameArgumentsGiveSameStream() {
+		assertArrayEquals(draw(1L, 0, 0L), draw(1L, 0, 0L));
+		assertArrayEquals(draw(-7L, 41, 0x1234L), draw(-7L, 41, 0x1234L));
+	}
+
+	/**
+	 * The stream of a replica does not depend on the streams drawn before it
+	 */
+	@Test
+	public void streamDoesNotDependOnOrder() {
+		long[] first = draw(3L, 5, 9L);
+		for (int replica = 0; replica < 5; replica++) {
+			draw(3L, replica, 9L);
+		}
+		assertArrayEquals(first, draw(3L, 5, 9L));
+	}
+
+	/**
+	 * Different seeds, replicas or solution keys give different streams
+	 */
+	@Test
+	public void differentArgumentsGiveDifferentStreams() {
+		long[] base = draw(1L, 0, 0L);
+		assertFalse(Arrays.equals(base, draw(2L, 0, 0L)));
+		assertFalse(Arrays.equals(base, draw(1L, 1, 0L)));
+		assertFalse(Arrays.equals(base, draw(1L, 0, 1L)));
+		// replica and solution key are not interchangeable
+		assertFalse(Arrays.equals(draw(1L, 1, 0L), draw(1L, 0, 1L)));
+	}
+}
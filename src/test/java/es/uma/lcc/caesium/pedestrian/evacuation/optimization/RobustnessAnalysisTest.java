@@ -0,0 +1,136 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the recovery of the rows of an interrupted robustness analysis from the 
+ * CSV file and its sidecar file of identifiers
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class RobustnessAnalysisTest {
+	/**
+	 * number of simulations per solution
+	 */
+	private static final int SIMULATIONS = 3;
+	/**
+	 * identifier of the analysis of each solution
+	 */
+	private static final String[] IDS = {"a1", "b2", "c3", "d4"};
+	/**
+	 * line separator (as written by the analysis)
+	 */
+	private static final String NL = System.lineSeparator();
+	/**
+	 * header of the CSV file
+	 */
+	private static final String HEADER = "run,sim0,sim1,sim2" + NL;
+	/**
+	 * directory of the files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Returns a row of the CSV file
+	 * @param run index of the run
+	 * @return the row
+	 */
+	private static String row(int run) {
+		return run + ",1.0,2.0,3.0" + NL;
+	}
+
+	/**
+	 * Returns a line of the sidecar file
+	 * @param run index of the run
+	 * @param id the identifier of the row
+	 * @return the line
+	 */
+	private static String id(int run, String id) {
+		return run + "," + id + NL;
+	}
+
+	/**
+	 * Complete and identified rows are kept, and a partially written row is discarded
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void completeRowsAreKept() throws IOException {
+		Path csv = folder.getRoot().toPath().resolve("analysis.csv");
+		Path ids = folder.getRoot().toPath().resolve("analysis.csv.ids");
+		Files.writeString(csv, HEADER + row(0) + row(1) + "2,1.0,2");
+		Files.writeString(ids, id(0, IDS[0]) + id(1, IDS[1]));
+		assertEquals(2, RobustnessAnalysis.completedRows(csv, ids, IDS, SIMULATIONS, IDS.length));
+		assertEquals(HEADER + row(0) + row(1), Files.readString(csv));
+		assertEquals(id(0, IDS[0]) + id(1, IDS[1]), Files.readString(ids));
+	}
+
+	/**
+	 * A row whose identifier was not recorded is discarded
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void unidentifiedRowIsDiscarded() throws IOException {
+		Path csv = folder.getRoot().toPath().resolve("analysis.csv");
+		Path ids = folder.getRoot().toPath().resolve("analysis.csv.ids");
+		Files.writeString(csv, HEADER + row(0) + row(1) + row(2));
+		Files.writeString(ids, id(0, IDS[0]) + id(1, IDS[1]));
+		assertEquals(2, RobustnessAnalysis.completedRows(csv, ids, IDS, SIMULATIONS, IDS.length));
+		assertEquals(HEADER + row(0) + row(1), Files.readString(csv));
+	}
+
+	/**
+	 * Rows from the first one computed for another solution (or configuration) onwards
+	 * are discarded
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void rowsOfOtherSolutionsAreDiscarded() throws IOException {
+		Path csv = folder.getRoot().toPath().resolve("analysis.csv");
+		Path ids = folder.getRoot().toPath().resolve("analysis.csv.ids");
+		Files.writeString(csv, HEADER + row(0) + row(1) + row(2));
+		Files.writeString(ids, id(0, IDS[0]) + id(1, "ff") + id(2, IDS[2]));
+		assertEquals(1, RobustnessAnalysis.completedRows(csv, ids, IDS, SIMULATIONS, IDS.length));
+		assertEquals(HEADER + row(0), Files.readString(csv));
+		assertEquals(id(0, IDS[0]), Files.readString(ids));
+	}
+
+	/**
+	 * Rows are not kept beyond the given limit (e.g., the runs complete in the binary file)
+	 * nor if the number of simulations differs
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void rowsAreLimited() throws IOException {
+		Path csv = folder.getRoot().toPath().resolve("analysis.csv");
+		Path ids = folder.getRoot().toPath().resolve("analysis.csv.ids");
+		Files.writeString(csv, HEADER + row(0) + row(1));
+		Files.writeString(ids, id(0, IDS[0]) + id(1, IDS[1]));
+		assertEquals(2, RobustnessAnalysis.completedRows(csv, ids, IDS, SIMULATIONS, IDS.length));
+		assertEquals(0, RobustnessAnalysis.completedRows(csv, ids, IDS, SIMULATIONS + 1, IDS.length));
+		Files.writeString(csv, HEADER + row(0) + row(1));
+		Files.writeString(ids, id(0, IDS[0]) + id(1, IDS[1]));
+		assertEquals(1, RobustnessAnalysis.completedRows(csv, ids, IDS, SIMULATIONS, 1));
+		assertEquals(HEADER + row(0), Files.readString(csv));
+		assertEquals(id(0, IDS[0]), Files.readString(ids));
+	}
+
+	/**
+	 * Nothing is kept if there is no previous analysis
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void missingFilesKeepNothing() throws IOException {
+		Path csv = folder.getRoot().toPath().resolve("analysis.csv");
+		Path ids = folder.getRoot().toPath().resolve("analysis.csv.ids");
+		assertEquals(0, RobustnessAnalysis.completedRows(csv, ids, IDS, SIMULATIONS, IDS.length));
+	}
+}
@@ -0,0 +1,160 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round-trip tests of the binary columnar file of simulation results
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class SimulationResultsFileTest {
+	/**
+	 * number of runs
+	 */
+	private static final int RUNS = 3;
+	/**
+	 * number of simulations per run
+	 */
+	private static final int SIMULATIONS = 5;
+	/**
+	 * fingerprint of the solutions and configuration analyzed
+	 */
+	private static final long FINGERPRINT = 0xabcdefL;
+	/**
+	 * directory of the files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Returns the fitness of the simulations of a run
+	 * @param run index of the run
+	 * @return the fitness of each simulation
+	 */
+	private static double[] fitness(int run) {
+		double[] fitness = new double[SIMULATIONS];
+		for (int j = 0; j < SIMULATIONS; j++) {
+			fitness[j] = 10.0 * run + j;
+		}
+		return fitness;
+	}
+
+	/**
+	 * Returns the summaries of the simulations of a run
+	 * @param run index of the run
+	 * @return the summary of each simulation
+	 */
+	private static List<SimulationSummary> summaries(int run) {
+		List<SimulationSummary> summaries = new ArrayList<SimulationSummary>(SIMULATIONS);
+		for (int j = 0; j < SIMULATIONS; j++) {
+			summaries.add(new SimulationSummary(run, j, run + 0.5, 100.0 * run + j, -j));
+		}
+		return summaries;
+	}
+
+	/**
+	 * Values written are read back, and only runs written are complete
+	 * @throws IOException if the file cannot be read/written
+	 */
+	@Test
+	public void writtenRunsAreReadBack() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("results.bin");
+		try (SimulationResultsFile file = SimulationResultsFile.create(path, FINGERPRINT, RUNS, SIMULATIONS, true)) {
+			file.writeRun(2, fitness(2), summaries(2));
+			file.writeRun(0, fitness(0), summaries(0));
+			assertTrue(file.isComplete(0));
+			assertFalse(file.isComplete(1));
+		}
+
+		assertTrue(SimulationResultsFile.isResultsFile(path));
+		try (SimulationResultsFile file = SimulationResultsFile.open(path)) {
+			assertEquals(FINGERPRINT, file.getFingerprint());
+			assertEquals(RUNS, file.getNumRuns());
+			assertEquals(SIMULATIONS, file.getNumSimulations());
+			List<String> columns = new ArrayList<String>();
+			columns.add(SimulationResultsFile.FITNESS);
+			columns.addAll(SimulationResultsFile.SUMMARY);
+			assertEquals(columns, file.getColumns());
+			assertTrue(file.isComplete(0));
+			assertFalse(file.isComplete(1));
+			assertTrue(file.isComplete(2));
+			for (int run: new int[] {0, 2}) {
+				DoubleBuffer values = file.getRun(SimulationResultsFile.FITNESS, run);
+				assertEquals(SIMULATIONS, values.remaining());
+				for (int j = 0; j < SIMULATIONS; j++) {
+					SimulationSummary s = summaries(run).get(j);
+					assertEquals(fitness(run)[j], file.get(SimulationResultsFile.FITNESS, run, j), 0.0);
+					assertEquals(fitness(run)[j], values.get(j), 0.0);
+					assertEquals(s.nonEvacuees(), file.get("nonEvacuees", run, j), 0.0);
+					assertEquals(s.minDistance(), file.get("minDistance", run, j), 0.0);
+					assertEquals(s.meanDistance(), file.get("meanDistance", run, j), 0.0);
+					assertEquals(s.maxTime(), file.get("maxTime", run, j), 0.0);
+					assertEquals(s.meanTime(), file.getRun("meanTime", run).get(j), 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs written are kept when the file is created again with the same fingerprint,
+	 * and discarded if the fingerprint differs
+	 * @throws IOException if the file cannot be read/written
+	 */
+	@Test
+	public void runsAreKeptForSameFingerprint() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("results.bin");
+		try (SimulationResultsFile file = SimulationResultsFile.create(path, FINGERPRINT, RUNS, SIMULATIONS, false)) {
+			file.writeRun(1, fitness(1), null);
+		}
+		try (SimulationResultsFile file = SimulationResultsFile.create(path, FINGERPRINT, RUNS, SIMULATIONS, false)) {
+			assertTrue(file.isComplete(1));
+		}
+		try (SimulationResultsFile file = SimulationResultsFile.open(path)) {
+			assertEquals(List.of(SimulationResultsFile.FITNESS), file.getColumns());
+			assertEquals(fitness(1)[3], file.get(SimulationResultsFile.FITNESS, 1, 3), 0.0);
+		}
+		try (SimulationResultsFile file = SimulationResultsFile.create(path, FINGERPRINT + 1, RUNS, SIMULATIONS, false)) {
+			assertFalse(file.isComplete(1));
+		}
+	}
+
+	/**
+	 * Truncated files and files of other formats are rejected
+	 * @throws IOException if the file cannot be read/written
+	 */
+	@Test
+	public void malformedFilesAreRejected() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("results.bin");
+		try (SimulationResultsFile file = SimulationResultsFile.create(path, FINGERPRINT, RUNS, SIMULATIONS, false)) {
+			file.writeRun(0, fitness(0), null);
+		}
+		Path truncated = folder.getRoot().toPath().resolve("truncated.bin");
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+		try {
+			SimulationResultsFile.open(truncated).close();
+			fail("A truncated file was opened");
+		} catch (IOException e) {
+			// expected
+		}
+
+		Path text = folder.getRoot().toPath().resolve("results.csv");
+		Files.writeString(text, "run,sim0\n0,1.0\n");
+		assertFalse(SimulationResultsFile.isResultsFile(text));
+	}
+}
@@ -0,0 +1,163 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round-trip tests of the persistent store of simulation results
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class SimulationStoreTest {
+	/**
+	 * hashes of the environment and simulation configuration of the store
+	 */
+	private static final long ENVIRONMENT = 0x1234L, CONFIGURATION = 0x5678L;
+	/**
+	 * solution key of the results
+	 */
+	private static final long SOLUTION = 99L;
+	/**
+	 * directory of the stores
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Returns the key of an exit layout
+	 * @param cells the cells of the exits
+	 * @return the key
+	 */
+	private static ExitLayoutKey layout(long... cells) {
+		return ExitLayoutKey.ofCells(cells);
+	}
+
+	/**
+	 * Returns the summary of a replica
+	 * @param replica the index of the replica
+	 * @return a summary with values depending on the replica
+	 */
+	private static SimulationSummary summary(int replica) {
+		return new SimulationSummary(replica, 1.5 * replica, 2.5 * replica, 100.0 + replica, 50.0 + replica);
+	}
+
+	/**
+	 * Appends the results of some replicas
+	 * @param store the store
+	 * @param layout the key of the exit layout
+	 * @param replicas the indices of the replicas
+	 * @throws IOException if the store cannot be written
+	 */
+	private static void append(SimulationStore store, ExitLayoutKey layout, int... replicas) throws IOException {
+		SimulationSummary[] summaries = new SimulationSummary[replicas.length];
+		for (int i = 0; i < replicas.length; i++) {
+			summaries[i] = summary(replicas[i]);
+		}
+		store.append(layout, SOLUTION, replicas, summaries);
+	}
+
+	/**
+	 * Results appended are found, also after reopening the store
+	 * @throws IOException if the store cannot be read/written
+	 */
+	@Test
+	public void appendedResultsAreFound() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		SimulationStore store = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION);
+		append(store, layout(7, 3, 5), 0, 1, 3);
+		SimulationSummary[] expected = {summary(0), summary(1), null, summary(3)};
+		assertArrayEquals(expected, store.lookup(layout(3, 5, 7), SOLUTION, 0, 4));
+		store.close();
+
+		store = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION);
+		assertArrayEquals(expected, store.lookup(layout(3, 5, 7), SOLUTION, 0, 4));
+		assertArrayEquals(new SimulationSummary[] {summary(1)}, store.lookup(layout(3, 5, 7), SOLUTION, 1, 1));
+		store.close();
+	}
+
+	/**
+	 * Results of other layouts, solution keys or stores are not found
+	 * @throws IOException if the store cannot be read/written
+	 */
+	@Test
+	public void resultsAreKeyed() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		SimulationStore store = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION);
+		append(store, layout(1, 2), 0);
+		assertNull(store.lookup(layout(1, 3), SOLUTION, 0, 1)[0]);
+		assertNull(store.lookup(layout(1, 2), SOLUTION + 1, 0, 1)[0]);
+		store.close();
+
+		SimulationStore other = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION + 1);
+		assertNull(other.lookup(layout(1, 2), SOLUTION, 0, 1)[0]);
+		other.close();
+	}
+
+	/**
+	 * A corrupt record is skipped, and the records after it are still read and 
+	 * new records can be appended
+	 * @throws IOException if the store cannot be read/written
+	 */
+	@Test
+	public void corruptRecordIsSkipped() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		SimulationStore store = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION);
+		Path path = store.getPath();
+		append(store, layout(4, 8), 0, 1, 2);
+		store.close();
+		long size = Files.size(path);
+
+		// flip a byte of the solution key of the first record
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer b = ByteBuffer.allocate(1);
+			channel.read(b, 10);
+			b.put(0, (byte) (b.get(0) ^ 0xff));
+			channel.write(b.flip(), 10);
+		}
+
+		store = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION);
+		assertArrayEquals(new SimulationSummary[] {null, summary(1), summary(2)}, store.lookup(layout(4, 8), SOLUTION, 0, 3));
+		append(store, layout(4, 8), 0);
+		assertArrayEquals(new SimulationSummary[] {summary(0), summary(1), summary(2)}, store.lookup(layout(4, 8), SOLUTION, 0, 3));
+		store.close();
+		// the corrupt record is kept: nothing is ever truncated
+		assertEquals(size + size / 3, Files.size(path));
+	}
+
+	/**
+	 * An incomplete record at the end of the file is ignored, and records appended
+	 * after it are read
+	 * @throws IOException if the store cannot be read/written
+	 */
+	@Test
+	public void incompleteRecordIsSkipped() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		SimulationStore store = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION);
+		Path path = store.getPath();
+		append(store, layout(6), 0, 1);
+		store.close();
+
+		// drop the last bytes of the second record, as a process killed while writing would
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 5);
+		}
+
+		store = SimulationStore.open(directory, ENVIRONMENT, CONFIGURATION);
+		assertArrayEquals(new SimulationSummary[] {summary(0), null}, store.lookup(layout(6), SOLUTION, 0, 2));
+		append(store, layout(6), 1);
+		assertArrayEquals(new SimulationSummary[] {summary(0), summary(1)}, store.lookup(layout(6), SOLUTION, 0, 2));
+		store.close();
+	}
+}
@@ -0,0 +1,98 @@
+package es.uma.lcc.caesium.pedestrian.evacuation.optimization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round-trip tests of the index of statistics files and its sidecar file
+ * @author ccottap, ppgllrd
+ * @version 1.0
+ */
+public class StatsIndexTest {
+	/**
+	 * statistics of two runs: two islands in the first one, one in the second one
+	 */
+	private static final String STATS = """
+			[
+			  {"seed": 1, "rundata": [
+			    {"isols": {"evals": [10, 50, 90], "fitness": [9.0, 5.0, 2.0],
+			               "genome": [[0.1, 0.2], [0.3, 0.4], [0.5, 0.6]]}, "time": 1.5},
+			    {"time": 2.0, "isols": {"evals": [20, 40], "fitness": [7.0, 4.0],
+			               "genome": [[1.1, 1.2], [1.3, 1.4]]}}
+			  ], "time": 3.5},
+			  {"seed": 2, "rundata": [
+			    {"isols": {"evals": [5], "fitness": [3.25], "genome": [[-2.5, 1e-3]]}}
+			  ]}
+			]
+			""";
+	/**
+	 * directory of the files
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * The best solution of each run is found within a budget of evaluations
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void bestSolutionsAreFound() throws IOException {
+		Path stats = folder.getRoot().toPath().resolve("stats.json");
+		Files.writeString(stats, STATS);
+		StatsIndex index = StatsIndex.of(stats.toString());
+		check(index);
+	}
+
+	/**
+	 * The sidecar file is written, and an index read from it gives the same results
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void sidecarIsReused() throws IOException {
+		Path stats = folder.getRoot().toPath().resolve("stats.json");
+		Files.writeString(stats, STATS);
+		StatsIndex.of(stats.toString());
+		Path sidecar = Path.of(stats + ".idx");
+		assertTrue(Files.exists(sidecar));
+		long size = Files.size(sidecar);
+		check(StatsIndex.of(stats.toString()));
+		assertEquals(size, Files.size(sidecar));
+	}
+
+	/**
+	 * An out of date sidecar file is not used
+	 * @throws IOException if the files cannot be read/written
+	 */
+	@Test
+	public void staleSidecarIsIgnored() throws IOException {
+		Path stats = folder.getRoot().toPath().resolve("stats.json");
+		Files.writeString(stats, STATS);
+		StatsIndex.of(stats.toString());
+		Files.writeString(stats, "[{\"rundata\": [{\"isols\": {\"evals\": [1], \"fitness\": [8.0], \"genome\": [[4.0]]}}]}]");
+		StatsIndex index = StatsIndex.of(stats.toString());
+		assertEquals(1, index.getNumRuns());
+		assertEquals(new StatsIndex.Best(0, 1, 8.0, List.of(4.0)), index.best(0, 100));
+	}
+
+	/**
+	 * Checks the index of {@link #STATS}
+	 * @param index the index
+	 * @throws IOException if the genomes cannot be read
+	 */
+	private static void check(StatsIndex index) throws IOException {
+		assertEquals(2, index.getNumRuns());
+		assertEquals(new StatsIndex.Best(0, 90, 2.0, List.of(0.5, 0.6)), index.best(0, 1000));
+		assertEquals(new StatsIndex.Best(1, 40, 4.0, List.of(1.3, 1.4)), index.best(0, 60));
+		assertEquals(new StatsIndex.Best(0, 10, 9.0, List.of(0.1, 0.2)), index.best(0, 15));
+		assertEquals(new StatsIndex.Best(0, 5, 3.25, List.of(-2.5, 1e-3)), index.best(1, 5));
+	}
+}